@@ -0,0 +1,64 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the color code translation, for messages from the cache, messages without any codes and long messages
+ * that are never cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorCodesBenchmark {
+
+    private String message;
+    private String hexMessage;
+    private String plainMessage;
+    private String longMessage;
+
+    @Setup
+    public void setUp() {
+        message = Message.MONSTER_CAN_SPAWN.getDefaultTemplate();
+        hexMessage = "&#FF5555Light &#55FF55level &l7";
+        plainMessage = "Light level 7";
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 400) {
+            builder.append("&7Light &#AABBCClevel &c7 ");
+        }
+        longMessage = builder.toString();
+    }
+
+    @Benchmark
+    public String translateCached() {
+        return ColorCodes.translate(message);
+    }
+
+    @Benchmark
+    public String translateHexCached() {
+        return ColorCodes.translate(hexMessage);
+    }
+
+    @Benchmark
+    public String translateWithoutCodes() {
+        return ColorCodes.translate(plainMessage);
+    }
+
+    @Benchmark
+    public String translateLong() {
+        return ColorCodes.translate(longMessage);
+    }
+}
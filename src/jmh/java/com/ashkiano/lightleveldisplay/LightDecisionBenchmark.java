@@ -0,0 +1,66 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the decision whether a measured light level is sent to the player, and the lookup of the pre-rendered
+ * message if it is. Both the common case of an unchanged light level and a light level that changes on every
+ * update are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightDecisionBenchmark {
+
+    // The default refresh interval of the action bar
+    private static final long REFRESH_INTERVAL_NANOS = 2_000_000_000L;
+
+    private final DisplayState state = new DisplayState();
+    // Random light levels to walk through, so the branches cannot be predicted
+    private final int[] lightLevels = new int[1024];
+    private MessageTable messageTable;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        messageTable = MessageTable.compile(Message.MONSTER_CAN_SPAWN.getDefaultTemplate(),
+                Message.MONSTER_CANNOT_SPAWN.getDefaultTemplate(), Message.SIDEBAR_TITLE.getDefaultTemplate());
+        Random random = new Random(42L);
+        for (int i = 0; i < lightLevels.length; i++) {
+            lightLevels[i] = random.nextInt(MessageTable.LIGHT_LEVELS);
+        }
+    }
+
+    @Benchmark
+    public Object unchangedLightLevel() {
+        return decide(7, false);
+    }
+
+    @Benchmark
+    public Object changingLightLevel() {
+        int lightLevel = lightLevels[index++ & (lightLevels.length - 1)];
+        return decide(lightLevel, lightLevel <= 7);
+    }
+
+    private Object decide(int lightLevel, boolean canSpawn) {
+        if (!state.update(lightLevel, canSpawn, DisplayChannel.ACTIONBAR, System.nanoTime(), REFRESH_INTERVAL_NANOS)) {
+            return null;
+        }
+        return messageTable.actionBar(lightLevel, canSpawn);
+    }
+}
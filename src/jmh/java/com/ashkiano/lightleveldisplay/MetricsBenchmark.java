@@ -0,0 +1,91 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the JSON of a metrics submission with the charts of the plugin, and gzipping it into a reused
+ * buffer like {@link Metrics.MetricsBase} does before sending it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private final ByteArrayOutputStream compressedData = new ByteArrayOutputStream(4096);
+    private Metrics.CustomChart[] charts;
+
+    @Setup
+    public void setUp() {
+        Map<String, Integer> channels = new LinkedHashMap<>();
+        for (DisplayChannel channel : DisplayChannel.values()) {
+            channels.put(channel.getName(), 1 + channel.ordinal() * 3);
+        }
+        Map<String, Map<String, Integer>> languages = new LinkedHashMap<>();
+        languages.put("en", Collections.singletonMap("en_us", 12));
+        languages.put("cs", Collections.singletonMap("cs_cz", 2));
+        charts = new Metrics.CustomChart[]{
+                new Metrics.SimplePie("update_mode", () -> "movement"),
+                new Metrics.AdvancedPie("display_channels", () -> channels),
+                new Metrics.DrilldownPie("languages", () -> languages),
+                new Metrics.SingleLineChart("players_with_display", () -> 14)
+        };
+    }
+
+    @Benchmark
+    public Metrics.JsonObjectBuilder.JsonObject buildJson() {
+        return build();
+    }
+
+    @Benchmark
+    public int buildAndCompress() throws IOException {
+        Metrics.JsonObjectBuilder.JsonObject data = build();
+        compressedData.reset();
+        Metrics.MetricsBase.compress(data, compressedData);
+        return compressedData.size();
+    }
+
+    /** Builds the submission the same way {@link Metrics.MetricsBase} does. */
+    private Metrics.JsonObjectBuilder.JsonObject build() {
+        Metrics.JsonObjectBuilder baseJsonBuilder = new Metrics.JsonObjectBuilder()
+                .appendField("playerAmount", 37)
+                .appendField("onlineMode", 1)
+                .appendField("bukkitVersion", "git-Paper-196 (MC: 1.20.1)")
+                .appendField("bukkitName", "Paper")
+                .appendField("javaVersion", "17.0.8")
+                .appendField("osName", "Linux")
+                .appendField("osArch", "amd64")
+                .appendField("osVersion", "6.1.0")
+                .appendField("coreCount", 8);
+        Metrics.JsonObjectBuilder serviceJsonBuilder = new Metrics.JsonObjectBuilder()
+                .appendField("pluginVersion", "1.17");
+        Metrics.JsonObjectBuilder.JsonObject[] chartData = new Metrics.JsonObjectBuilder.JsonObject[charts.length];
+        for (int i = 0; i < charts.length; i++) {
+            chartData[i] = charts[i].getRequestJsonObject((message, error) -> {}, false);
+        }
+        serviceJsonBuilder.appendField("id", 18811);
+        serviceJsonBuilder.appendField("customCharts", chartData);
+        baseJsonBuilder.appendField("service", serviceJsonBuilder.build());
+        baseJsonBuilder.appendField("serverUUID", "8f0c0e5c-3f5e-4a4e-9d4b-1f6a2a7c9b10");
+        baseJsonBuilder.appendField("metricsVersion", Metrics.MetricsBase.METRICS_VERSION);
+        return baseJsonBuilder.build();
+    }
+}
@@ -0,0 +1,150 @@
+package com.ashkiano.lightleveldisplay;
+
+import net.md_5.bungee.api.ChatMessageType;
+import net.md_5.bungee.api.chat.BaseComponent;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the way from a movement event to the message in the action bar, with a stub player, world and blocks.
+ * <p>
+ * The plugin itself cannot be created without a server, so the steps of
+ * {@link LightLevelDisplay#onPlayerMove} and {@link LightLevelDisplay#displayLightLevel} with synchronous
+ * sampling are taken here on the same classes: the session lookup, the block check, reading the light, the
+ * decision whether to send and the rendering. The spawn index needs loaded chunks and is replaced by the light
+ * limit of the overworld. The rate limit is left out, it would drop most of the updates of a benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovePathBenchmark {
+
+    // The default refresh interval of the action bar
+    private static final long REFRESH_INTERVAL_NANOS = 2_000_000_000L;
+
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private final DisplayRenderer renderer = new DisplayRenderer(null);
+    private MessageTable messageTable;
+    private Player player;
+    // Two neighbouring blocks, a dark and a lit one, which the player walks back and forth between
+    private Location dark;
+    private Location lit;
+    private boolean onDark = true;
+    // The number of messages the stub player received
+    private long messages = 0L;
+
+    @Setup
+    public void setUp() {
+        messageTable = MessageTable.compile(Message.MONSTER_CAN_SPAWN.getDefaultTemplate(),
+                Message.MONSTER_CANNOT_SPAWN.getDefaultTemplate(), Message.SIDEBAR_TITLE.getDefaultTemplate());
+
+        UUID playerUUID = UUID.randomUUID();
+        Player.Spigot spigot = new Player.Spigot() {
+            @Override
+            public void sendMessage(ChatMessageType position, BaseComponent... components) {
+                messages++;
+            }
+        };
+        player = stub(Player.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return playerUUID;
+                case "spigot":
+                    return spigot;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        PlayerSession session = new PlayerSession(playerUUID);
+        session.setDisplayEnabled(true);
+        sessions.put(playerUUID, session);
+
+        Block darkBlock = block(3);
+        Block litBlock = block(12);
+        World world = stub(World.class, (proxy, method, args) -> {
+            if (method.getName().equals("getBlockAt")) {
+                return ((Location) args[0]).getBlockX() == 0 ? darkBlock : litBlock;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        dark = new Location(world, 0.5D, 64.0D, 0.5D);
+        lit = new Location(world, 1.5D, 64.0D, 0.5D);
+    }
+
+    /** A move into the other block, which always changes the message. */
+    @Benchmark
+    public boolean moveToOtherBlock() {
+        Location from = onDark ? dark : lit;
+        Location to = onDark ? lit : dark;
+        onDark = !onDark;
+        return move(from, to);
+    }
+
+    /** A move within the same block, the most common event, which is rejected early. */
+    @Benchmark
+    public boolean moveWithinBlock() {
+        return move(dark, dark);
+    }
+
+    private boolean move(Location from, Location to) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null || !session.isDisplayEnabled()) {
+            return false;
+        }
+        if (from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ()) {
+            return false;
+        }
+
+        Block block = to.getBlock();
+        int lightLevel = block.getLightLevel();
+        boolean canSpawn = lightLevel <= 7;
+        long now = System.nanoTime();
+        session.recordSample(lightLevel, block.getLightFromSky(), block.getLightFromBlocks(), canSpawn, now);
+        if (!session.getDisplayState().update(lightLevel, canSpawn, DisplayChannel.ACTIONBAR, now, REFRESH_INTERVAL_NANOS)) {
+            return false;
+        }
+        renderer.render(player, DisplayChannel.ACTIONBAR, messageTable, lightLevel, canSpawn);
+        return true;
+    }
+
+    private static Block block(int lightLevel) {
+        return stub(Block.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getLightLevel":
+                    return (byte) lightLevel;
+                case "getLightFromSky":
+                    return (byte) 0;
+                case "getLightFromBlocks":
+                    return (byte) lightLevel;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(MovePathBenchmark.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
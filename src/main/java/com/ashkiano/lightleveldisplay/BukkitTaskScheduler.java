@@ -0,0 +1,47 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Schedules the work of the plugin on a normal server, where the main thread owns all players, chunks and
+ * global state.
+ */
+public class BukkitTaskScheduler extends TaskScheduler {
+
+    public BukkitTaskScheduler(Plugin plugin) {
+        super(plugin);
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return false;
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+
+    @Override
+    public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        BukkitTask bukkitTask = plugin.getServer().getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks);
+        return bukkitTask::cancel;
+    }
+
+    @Override
+    public void runForPlayer(Player player, Runnable task) {
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            // Skip players who left in the meantime
+            if (player.isOnline()) {
+                task.run();
+            }
+        });
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Player player) {
+        return plugin.getServer().isPrimaryThread();
+    }
+}
@@ -0,0 +1,186 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scan over a list of chunks, run by the {@link ChunkScanner}.
+ * <p>
+ * The scanner takes the snapshots of the chunks on the main thread in the order of the list, and hands every
+ * snapshot to {@link #analyse(int, long, ChunkSnapshot)} on a thread of its pool. A scan reports how many chunks
+ * it is done with through {@link #completed(int)}, which limits how far the scanner runs ahead of it.
+ */
+public abstract class ChunkScan {
+
+    // Scans assume midnight, when the sky is darkest, so the result does not depend on the time of day
+    public static final int NIGHT_SKY_DARKNESS = 11;
+
+    protected final CommandSender sender;
+    // The language of the sender when the scan was started
+    protected final LanguageCatalog catalog;
+    protected final World world;
+    protected final World.Environment environment;
+    protected final SpawnRules spawnRules;
+    protected final int minHeight;
+    protected final int maxHeight;
+    // The packed coordinates of the chunks to scan, in the order they are scanned
+    private final long[] chunks;
+    private final boolean loadGenerated;
+    // Updated by the threads of the pool
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile Exception failure = null;
+
+    // Only used by the scanner on the main thread
+    int first = 0;
+    int next = 0;
+    int dispatched = 0;
+    long ticks = 0L;
+    long startNanos = 0L;
+
+    /**
+     * Creates a new scan.
+     *
+     * @param sender        The sender to report the progress and the result to.
+     * @param catalog       The language to report in.
+     * @param world         The world to scan.
+     * @param chunks        The packed coordinates of the chunks to scan, see {@link SnapshotCache#chunkKey(int, int)}.
+     * @param spawnRules    The rules that decide which blocks are spawnable.
+     * @param loadGenerated Whether chunks that are generated but not loaded are loaded for the scan.
+     */
+    protected ChunkScan(CommandSender sender, LanguageCatalog catalog, World world, long[] chunks, SpawnRules spawnRules,
+                        boolean loadGenerated) {
+        this.sender = sender;
+        this.catalog = catalog;
+        this.world = world;
+        this.environment = world.getEnvironment();
+        this.spawnRules = spawnRules;
+        this.minHeight = LightSampler.minHeight(world);
+        this.maxHeight = world.getMaxHeight();
+        this.chunks = chunks;
+        this.loadGenerated = loadGenerated;
+    }
+
+    /**
+     * Lists the chunks of a square, row by row along the X axis and within a row along the Z axis.
+     *
+     * @param centerChunkX The X coordinate of the chunk in the center.
+     * @param centerChunkZ The Z coordinate of the chunk in the center.
+     * @param radius       The number of chunks around the center chunk.
+     * @return The packed coordinates of the chunks.
+     */
+    public static long[] square(int centerChunkX, int centerChunkZ, int radius) {
+        long[] chunks = new long[(2 * radius + 1) * (2 * radius + 1)];
+        int size = 0;
+        for (int x = centerChunkX - radius; x <= centerChunkX + radius; x++) {
+            for (int z = centerChunkZ - radius; z <= centerChunkZ + radius; z++) {
+                chunks[size++] = SnapshotCache.chunkKey(x, z);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Lists the loaded chunks of a world. Must be called from the main thread.
+     *
+     * @param world The world.
+     * @return The packed coordinates of the chunks.
+     */
+    public static long[] loaded(World world) {
+        // Remember the coordinates only, the chunks themselves may be unloaded before they are scanned
+        Chunk[] loadedChunks = world.getLoadedChunks();
+        long[] chunks = new long[loadedChunks.length];
+        for (int i = 0; i < loadedChunks.length; i++) {
+            chunks[i] = SnapshotCache.chunkKey(loadedChunks[i].getX(), loadedChunks[i].getZ());
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the name of the scan for the messages, the English default is used in the log.
+     *
+     * @return The message with the name, like 'Audit'.
+     */
+    protected abstract Message getName();
+
+    /**
+     * Prepares the scan on an async thread before the first chunk is scanned, for example by opening files.
+     *
+     * @return The index of the first chunk to scan, more than 0 if an earlier scan is resumed.
+     * @throws IOException If the scan cannot be started.
+     */
+    protected int open() throws IOException {
+        return 0;
+    }
+
+    /**
+     * Analyses a chunk on a thread of the pool. The chunks are handed out in order, but analysed in parallel.
+     *
+     * @param index    The index of the chunk in the list.
+     * @param chunkKey The packed coordinates of the chunk.
+     * @param snapshot The snapshot of the chunk, or null if the chunk is not loaded and was skipped.
+     */
+    protected abstract void analyse(int index, long chunkKey, ChunkSnapshot snapshot);
+
+    /**
+     * Releases what {@link #open()} acquired. Called on an async thread after the last analysis has finished,
+     * or on the main thread when the plugin is disabled, also when the scan was cancelled or failed.
+     */
+    protected void close() {
+    }
+
+    /**
+     * Reports the result on the main thread, after the scan was closed.
+     *
+     * @param elapsedNanos The time the scan took.
+     */
+    protected abstract void complete(long elapsedNanos);
+
+    /**
+     * Describes the progress and the intermediate result for the progress messages.
+     *
+     * @param done    The number of chunks that are done.
+     * @param total   The number of chunks to scan.
+     * @param percent The share of the chunks that are done.
+     * @return The progress message.
+     */
+    protected abstract String describeProgress(int done, int total, long percent);
+
+    /**
+     * Marks chunks as done. Can be called from any thread.
+     *
+     * @param count The number of chunks that are done.
+     */
+    protected void completed(int count) {
+        completed.addAndGet(count);
+    }
+
+    /**
+     * Stops the scan because of an error. Can be called from any thread.
+     *
+     * @param e The error.
+     */
+    protected void fail(Exception e) {
+        failure = e;
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    Exception getFailure() {
+        return failure;
+    }
+
+    long[] getChunks() {
+        return chunks;
+    }
+
+    boolean isLoadGenerated() {
+        return loadGenerated;
+    }
+}
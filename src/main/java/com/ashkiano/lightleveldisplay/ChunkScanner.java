@@ -0,0 +1,255 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Runs {@link ChunkScan}s over many chunks without slowing down the server, one scan at a time.
+ * <p>
+ * Chunk snapshots are taken on the main thread, at most a fixed number and for at most a fixed time per tick,
+ * and analysed in parallel on a fork-join pool with a limited number of threads. No more snapshots are taken
+ * while too many chunks are not done yet, so a slow pool or a slow disk never fills the memory and a scan never
+ * takes more than its budget of a tick. Scans that include generated chunks that are not loaded load at most one
+ * of them per tick, because loading a chunk from disk blocks the main thread.
+ */
+public class ChunkScanner implements Runnable {
+
+    // Ticks between two progress messages
+    private static final long PROGRESS_INTERVAL_TICKS = 100L;
+    // How long the plugin waits for the pool to finish its last chunks when it is disabled
+    private static final long STOP_TIMEOUT_SECONDS = 5L;
+
+    private final LightLevelDisplay plugin;
+    private final int chunksPerTick;
+    private final long tickBudgetNanos;
+    private final int threads;
+    // The scan that is currently running or being opened, only used on the main thread
+    private ChunkScan scan = null;
+    private ForkJoinPool pool = null;
+    private TaskScheduler.Task task = null;
+
+    /**
+     * Creates a new chunk scanner.
+     *
+     * @param plugin          The plugin instance.
+     * @param chunksPerTick   The maximum number of chunk snapshots taken per tick.
+     * @param tickBudgetNanos The maximum time spent taking snapshots per tick.
+     * @param threads         The number of threads analysing the snapshots.
+     */
+    public ChunkScanner(LightLevelDisplay plugin, int chunksPerTick, long tickBudgetNanos, int threads) {
+        this.plugin = plugin;
+        this.chunksPerTick = chunksPerTick;
+        this.tickBudgetNanos = tickBudgetNanos;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts a scan. Must be called from the main thread.
+     *
+     * @param newScan The scan to start.
+     * @return False if another scan is already running.
+     */
+    public boolean start(ChunkScan newScan) {
+        if (scan != null) {
+            return false;
+        }
+        scan = newScan;
+
+        // Opening the scan may read and write files, so it happens off the main thread
+        plugin.getTaskScheduler().runAsync(() -> {
+            int first;
+            try {
+                first = newScan.open();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to start the "
+                        + newScan.getName().getDefaultTemplate().toLowerCase(Locale.ROOT), e);
+                newScan.close();
+                plugin.getTaskScheduler().runGlobal(() -> {
+                    if (scan == newScan) {
+                        scan = null;
+                    }
+                    newScan.sender.sendMessage(newScan.catalog.format(Message.SCAN_START_FAILED,
+                            newScan.catalog.get(newScan.getName()), e.getMessage()));
+                });
+                return;
+            }
+
+            plugin.getTaskScheduler().runGlobal(() -> {
+                // The scan was cancelled while it was being opened
+                if (scan != newScan) {
+                    plugin.getTaskScheduler().runAsync(newScan::close);
+                    return;
+                }
+                int total = newScan.getChunks().length;
+                newScan.first = Math.min(first, total);
+                newScan.next = newScan.first;
+                newScan.startNanos = System.nanoTime();
+                pool = new ForkJoinPool(threads);
+                task = plugin.getTaskScheduler().runGlobalTimer(this, 1L, 1L);
+                String name = newScan.catalog.get(newScan.getName());
+                if (newScan.first > 0) {
+                    newScan.sender.sendMessage(newScan.catalog.format(Message.SCAN_RESUMED, name, total - newScan.first,
+                            newScan.world.getName(), newScan.first, threads));
+                } else {
+                    newScan.sender.sendMessage(newScan.catalog.format(Message.SCAN_STARTED, name, total,
+                            newScan.world.getName(), threads));
+                }
+            });
+        });
+        return true;
+    }
+
+    /**
+     * Cancels the running scan. Must be called from the main thread.
+     *
+     * @return False if no scan is running.
+     */
+    public boolean cancel() {
+        if (scan == null) {
+            return false;
+        }
+        scan.sender.sendMessage(scan.catalog.format(Message.SCAN_CANCELLED, scan.catalog.get(scan.getName()),
+                scan.getCompleted()));
+        finish(false);
+        return true;
+    }
+
+    /** Stops the running scan without reporting anything, for example when the plugin is disabled. */
+    public void stop() {
+        if (scan == null) {
+            return;
+        }
+        ChunkScan stopped = scan;
+        ForkJoinPool stoppedPool = pool;
+        if (task != null) {
+            task.cancel();
+        }
+        scan = null;
+        pool = null;
+        task = null;
+
+        // No tasks can be scheduled while the plugin is disabled, so wait for the pool right here
+        if (stoppedPool != null) {
+            stoppedPool.shutdownNow();
+            try {
+                stoppedPool.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        ChunkScan current = scan;
+        if (current.getFailure() != null) {
+            current.sender.sendMessage(current.catalog.format(Message.SCAN_FAILED, current.catalog.get(current.getName()),
+                    current.getFailure().getMessage()));
+            plugin.getLogger().log(Level.WARNING, current.getName().getDefaultTemplate() + " failed", current.getFailure());
+            finish(false);
+            return;
+        }
+
+        long[] chunks = current.getChunks();
+        long start = System.nanoTime();
+        int maxPending = threads * 4;
+        int taken = 0;
+        // Take fewer snapshots while the server is lagging
+        double scale = plugin.getLoadScale();
+        int maxTaken = Math.max(1, (int) (chunksPerTick * scale));
+        long budgetNanos = (long) (tickBudgetNanos * scale);
+
+        World world = current.world;
+        boolean chunkLoaded = false;
+
+        // Take snapshots until the budget of this tick is used up or enough chunks are waiting to be done
+        while (current.next < chunks.length && taken < maxTaken
+                && current.dispatched - current.getCompleted() < maxPending && System.nanoTime() - start < budgetNanos) {
+            long key = chunks[current.next];
+            int chunkX = (int) (key >> 32);
+            int chunkZ = (int) key;
+            ChunkSnapshot snapshot = null;
+            if (world.isChunkLoaded(chunkX, chunkZ)) {
+                snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, true, false);
+            } else if (current.isLoadGenerated() && world.isChunkGenerated(chunkX, chunkZ)) {
+                // Loading a chunk blocks the main thread until it is read from disk, so only one is loaded per tick
+                if (chunkLoaded) {
+                    break;
+                }
+                chunkLoaded = true;
+                // Load the chunk just for the snapshot, and let the server unload it again when nobody else needs it
+                snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, true, false);
+                world.unloadChunkRequest(chunkX, chunkZ);
+            }
+            if (snapshot != null) {
+                taken++;
+            }
+            int index = current.next++;
+            ChunkSnapshot chunkSnapshot = snapshot;
+            current.dispatched++;
+            try {
+                pool.execute(() -> {
+                    try {
+                        current.analyse(index, key, chunkSnapshot);
+                    } catch (RuntimeException e) {
+                        current.fail(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The scan was stopped in the meantime
+                return;
+            }
+        }
+
+        if (current.next >= chunks.length && current.getCompleted() >= current.dispatched) {
+            finish(true);
+            return;
+        }
+        if (++current.ticks % PROGRESS_INTERVAL_TICKS == 0) {
+            int total = chunks.length - current.first;
+            int done = current.getCompleted();
+            current.sender.sendMessage(current.describeProgress(done, total, done * 100L / Math.max(1, total)));
+        }
+    }
+
+    /**
+     * Ends the running scan, closes it once the pool has finished its last chunks, and reports the result
+     * if the scan is complete.
+     */
+    private void finish(boolean complete) {
+        ChunkScan finished = scan;
+        ForkJoinPool finishedPool = pool;
+        if (task != null) {
+            task.cancel();
+        }
+        scan = null;
+        pool = null;
+        task = null;
+        // Still being opened, it is closed once the opening is done
+        if (finishedPool == null) {
+            return;
+        }
+
+        finishedPool.shutdownNow();
+        long elapsedNanos = System.nanoTime() - finished.startNanos;
+        plugin.getTaskScheduler().runAsync(() -> {
+            try {
+                finishedPool.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.close();
+            if (complete) {
+                plugin.getTaskScheduler().runGlobal(() -> finished.complete(elapsedNanos));
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChatColor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Translates '&amp;' color codes and '&amp;#rrggbb' hex color codes into Minecraft color codes.
+ * <p>
+ * Both kinds of codes are translated in a single scan into a presized char array. The result is exactly what
+ * {@link ChatColor#translateAlternateColorCodes(char, String)} followed by replacing every match of
+ * {@code &#([A-Fa-f0-9]{6})} used to produce: the first pass never creates, removes or changes a '&amp;#rrggbb'
+ * code, so handling a hex code wherever the second pass would have matched it gives the same characters.
+ * Recently translated messages are kept in a small LRU cache, since the same templates are translated over and over.
+ * The cache is split into stripes by the hash of the message, each with its own lock, so threads translating
+ * different messages rarely wait for each other.
+ */
+public final class ColorCodes {
+
+    // The character that starts a color code in the messages
+    private static final char ALTERNATE_COLOR_CHAR = '&';
+    // The characters that ChatColor#translateAlternateColorCodes() accepts after the '&'
+    private static final String COLOR_CODES = "0123456789AaBbCcDdEeFfKkLlMmNnOoRrXx";
+    // '&#' followed by six hex digits
+    private static final int HEX_CODE_LENGTH = 8;
+    // A hex code becomes the color character and 'x', followed by the color character and a digit six times
+    private static final int TRANSLATED_HEX_CODE_LENGTH = 14;
+
+    // The number of stripes of the cache, a power of two, and the translated messages kept per stripe
+    private static final int CACHE_STRIPES = 16;
+    private static final int STRIPE_SIZE = 32;
+    // Longer messages are not cached, so a few large messages cannot take up a lot of memory
+    private static final int MAX_CACHED_LENGTH = 256;
+    @SuppressWarnings("unchecked")
+    private static final Map<String, String>[] CACHE = new Map[CACHE_STRIPES];
+
+    static {
+        for (int i = 0; i < CACHE_STRIPES; i++) {
+            CACHE[i] = new LinkedHashMap<String, String>(STRIPE_SIZE * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > STRIPE_SIZE;
+                }
+            };
+        }
+    }
+
+    private ColorCodes() {
+    }
+
+    /**
+     * Translates the color codes of a message. Safe to call from any thread.
+     *
+     * @param message The message with '&amp;' and '&amp;#rrggbb' color codes.
+     * @return The message with Minecraft color codes.
+     */
+    public static String translate(String message) {
+        // Nothing to translate without an '&', which is the case for most messages
+        if (message.indexOf(ALTERNATE_COLOR_CHAR) < 0) {
+            return message;
+        }
+        if (message.length() > MAX_CACHED_LENGTH) {
+            return translateUncached(message);
+        }
+
+        // Spread the hash, so messages that only differ at the end still land in different stripes
+        int hash = message.hashCode();
+        Map<String, String> stripe = CACHE[(hash ^ (hash >>> 16)) & (CACHE_STRIPES - 1)];
+        String translated;
+        synchronized (stripe) {
+            translated = stripe.get(message);
+        }
+        if (translated == null) {
+            translated = translateUncached(message);
+            synchronized (stripe) {
+                stripe.put(message, translated);
+            }
+        }
+        return translated;
+    }
+
+    private static String translateUncached(String message) {
+        int length = message.length();
+        // Enough room for the worst case, a message made of nothing but hex codes
+        char[] buffer = new char[length + (length / HEX_CODE_LENGTH) * (TRANSLATED_HEX_CODE_LENGTH - HEX_CODE_LENGTH)];
+        int size = 0;
+
+        int i = 0;
+        while (i < length) {
+            char c = message.charAt(i);
+            if (c == ALTERNATE_COLOR_CHAR) {
+                // A hex color code, the digits are kept as they are
+                if (isHexCode(message, i)) {
+                    buffer[size++] = ChatColor.COLOR_CHAR;
+                    buffer[size++] = 'x';
+                    for (int digit = i + 2; digit < i + HEX_CODE_LENGTH; digit++) {
+                        buffer[size++] = ChatColor.COLOR_CHAR;
+                        buffer[size++] = message.charAt(digit);
+                    }
+                    i += HEX_CODE_LENGTH;
+                    continue;
+                }
+
+                // A regular color code, the code is turned to lower case
+                if (i + 1 < length && COLOR_CODES.indexOf(message.charAt(i + 1)) >= 0) {
+                    buffer[size++] = ChatColor.COLOR_CHAR;
+                    buffer[size++] = Character.toLowerCase(message.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+            }
+
+            buffer[size++] = c;
+            i++;
+        }
+        return new String(buffer, 0, size);
+    }
+
+    private static boolean isHexCode(String message, int start) {
+        if (start + HEX_CODE_LENGTH > message.length() || message.charAt(start + 1) != '#') {
+            return false;
+        }
+        for (int i = start + 2; i < start + HEX_CODE_LENGTH; i++) {
+            char c = message.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
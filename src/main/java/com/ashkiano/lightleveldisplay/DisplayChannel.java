@@ -0,0 +1,54 @@
+package com.ashkiano.lightleveldisplay;
+
+import java.util.Locale;
+
+/**
+ * The places where the light level can be displayed to a player.
+ */
+public enum DisplayChannel {
+
+    ACTIONBAR(true),
+    CHAT(false),
+    BOSSBAR(false),
+    TITLE(true),
+    SIDEBAR(false);
+
+    private final boolean fading;
+
+    DisplayChannel(boolean fading) {
+        this.fading = fading;
+    }
+
+    /**
+     * Checks whether messages in this channel disappear after a while and have to be re-sent to stay visible.
+     *
+     * @return True if the channel fades.
+     */
+    public boolean isFading() {
+        return fading;
+    }
+
+    /**
+     * Returns the name of the channel as used in commands and the config.
+     *
+     * @return The lower case name of the channel.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Finds a channel by its name, ignoring the case.
+     *
+     * @param name The name of the channel.
+     * @return The channel, or null if there is no channel with that name.
+     */
+    public static DisplayChannel fromName(String name) {
+        for (DisplayChannel channel : values()) {
+            if (channel.name().equalsIgnoreCase(name)) {
+                return channel;
+            }
+        }
+        return null;
+    }
+}
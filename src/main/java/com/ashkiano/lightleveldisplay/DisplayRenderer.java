@@ -0,0 +1,176 @@
+package com.ashkiano.lightleveldisplay;
+
+import net.md_5.bungee.api.ChatMessageType;
+import org.bukkit.boss.BarColor;
+import org.bukkit.boss.BarStyle;
+import org.bukkit.boss.BossBar;
+import org.bukkit.entity.Player;
+import org.bukkit.scoreboard.DisplaySlot;
+import org.bukkit.scoreboard.Objective;
+import org.bukkit.scoreboard.Scoreboard;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends pre-rendered light level messages to players through their chosen {@link DisplayChannel}.
+ * <p>
+ * Boss bars and sidebar scoreboards are created once per player and afterwards only their title, progress,
+ * color or score line is changed, and only when it actually differs, instead of creating new ones for every
+ * update. The display of a player must only be changed from the thread that owns the player.
+ */
+public class DisplayRenderer {
+
+    private final LightLevelDisplay plugin;
+    // The boss bar of every player who uses the boss bar channel
+    private final Map<UUID, BossBar> bossBars = new ConcurrentHashMap<>();
+    // The sidebar of every player who uses the sidebar channel
+    private final Map<UUID, Sidebar> sidebars = new ConcurrentHashMap<>();
+
+    public DisplayRenderer(LightLevelDisplay plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Checks whether a channel can be used on this server. Region-threaded servers like Folia do not support
+     * scoreboards, so the sidebar is not available there.
+     *
+     * @param channel The channel.
+     * @return True if light levels can be displayed in the channel.
+     */
+    public boolean isSupported(DisplayChannel channel) {
+        return channel != DisplayChannel.SIDEBAR || !plugin.getTaskScheduler().isRegionThreaded();
+    }
+
+    /**
+     * Displays a light level to a player.
+     *
+     * @param player       The player to display the light level to.
+     * @param channel      The channel to display the light level in.
+     * @param messageTable The pre-rendered messages to display.
+     * @param lightLevel   The light level between 0 and 15.
+     * @param canSpawn     Whether monsters can spawn at this light level.
+     */
+    public void render(Player player, DisplayChannel channel, MessageTable messageTable, int lightLevel, boolean canSpawn) {
+        switch (channel) {
+            case ACTIONBAR:
+                player.spigot().sendMessage(ChatMessageType.ACTION_BAR, messageTable.actionBar(lightLevel, canSpawn));
+                break;
+            case CHAT:
+                player.sendMessage(messageTable.chat(lightLevel, canSpawn));
+                break;
+            case BOSSBAR:
+                renderBossBar(player, messageTable.chat(lightLevel, canSpawn), lightLevel, canSpawn);
+                break;
+            case TITLE:
+                // Only the subtitle is used, so the message does not cover the middle of the screen
+                player.sendTitle("", messageTable.chat(lightLevel, canSpawn), 0, 60, 10);
+                break;
+            case SIDEBAR:
+                renderSidebar(player, messageTable, lightLevel, canSpawn);
+                break;
+        }
+    }
+
+    private void renderBossBar(Player player, String title, int lightLevel, boolean canSpawn) {
+        BarColor color = canSpawn ? BarColor.RED : BarColor.GREEN;
+        BossBar bossBar = bossBars.get(player.getUniqueId());
+        if (bossBar == null) {
+            bossBar = plugin.getServer().createBossBar(title, color, BarStyle.SEGMENTED_6);
+            bossBar.addPlayer(player);
+            bossBars.put(player.getUniqueId(), bossBar);
+        }
+
+        // Only change what differs, every change is a packet to the player
+        if (!title.equals(bossBar.getTitle())) {
+            bossBar.setTitle(title);
+        }
+        double progress = lightLevel / 15.0D;
+        if (bossBar.getProgress() != progress) {
+            bossBar.setProgress(progress);
+        }
+        if (bossBar.getColor() != color) {
+            bossBar.setColor(color);
+        }
+    }
+
+    private void renderSidebar(Player player, MessageTable messageTable, int lightLevel, boolean canSpawn) {
+        Sidebar sidebar = sidebars.get(player.getUniqueId());
+        if (sidebar == null) {
+            // Give the player an own scoreboard and remember the old one, so it can be restored later
+            Scoreboard scoreboard = plugin.getServer().getScoreboardManager().getNewScoreboard();
+            Objective objective = scoreboard.registerNewObjective("lightlevel", "dummy", messageTable.sidebarTitle());
+            objective.setDisplaySlot(DisplaySlot.SIDEBAR);
+            sidebar = new Sidebar(player.getScoreboard(), objective, messageTable.sidebarTitle());
+            sidebars.put(player.getUniqueId(), sidebar);
+            player.setScoreboard(scoreboard);
+        }
+
+        // The title changes when the player switches to another language or the language files are reloaded
+        String title = messageTable.sidebarTitle();
+        if (!title.equals(sidebar.title)) {
+            sidebar.objective.setDisplayName(title);
+            sidebar.title = title;
+        }
+
+        // Replace the line only if the message changed, otherwise just update its score
+        String line = messageTable.chat(lightLevel, canSpawn);
+        if (!line.equals(sidebar.line)) {
+            if (sidebar.line != null) {
+                sidebar.objective.getScoreboard().resetScores(sidebar.line);
+            }
+            sidebar.line = line;
+        }
+        sidebar.objective.getScore(line).setScore(lightLevel);
+    }
+
+    /**
+     * Removes the boss bar and sidebar of a player, for example when the player disables the display,
+     * switches to another channel or leaves.
+     *
+     * @param player     The player to clear the display of, or null if the player is no longer online.
+     * @param playerUUID The UUID of the player.
+     */
+    public void clear(Player player, UUID playerUUID) {
+        BossBar bossBar = bossBars.remove(playerUUID);
+        if (bossBar != null) {
+            bossBar.removeAll();
+        }
+
+        Sidebar sidebar = sidebars.remove(playerUUID);
+        if (sidebar != null && player != null) {
+            player.setScoreboard(sidebar.previousScoreboard);
+        }
+    }
+
+    /** Removes the boss bars and sidebars of all players. */
+    public void clearAll() {
+        for (BossBar bossBar : bossBars.values()) {
+            bossBar.removeAll();
+        }
+        bossBars.clear();
+
+        for (Map.Entry<UUID, Sidebar> entry : sidebars.entrySet()) {
+            Player player = plugin.getServer().getPlayer(entry.getKey());
+            if (player != null) {
+                player.setScoreboard(entry.getValue().previousScoreboard);
+            }
+        }
+        sidebars.clear();
+    }
+
+    private static class Sidebar {
+        private final Scoreboard previousScoreboard;
+        private final Objective objective;
+        // The title and the line currently shown in the sidebar
+        private String title;
+        private String line = null;
+
+        private Sidebar(Scoreboard previousScoreboard, Objective objective, String title) {
+            this.previousScoreboard = previousScoreboard;
+            this.objective = objective;
+            this.title = title;
+        }
+    }
+}
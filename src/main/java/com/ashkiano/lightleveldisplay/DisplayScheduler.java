@@ -0,0 +1,116 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Updates the light level display from a repeating task instead of from every movement event.
+ * <p>
+ * Players with the display enabled are spread over one bucket per tick of the update interval,
+ * and each tick only the players of a single bucket are sampled. The cost per tick is therefore
+ * bounded by the bucket size no matter how fast the players move, and standing players are
+ * re-sent their message regularly, so the action bar does not fade away. Players can be added and removed
+ * from any thread, their display is updated on the thread that owns them.
+ */
+public class DisplayScheduler implements Runnable {
+
+    private final LightLevelDisplay plugin;
+    // One bucket of player UUIDs for every tick of the update interval
+    private final List<List<UUID>> buckets;
+    // Index of the bucket that will be processed on the next tick
+    private int currentBucket = 0;
+    // Grows by the load scale of the plugin every tick, a bucket is only processed once it reaches 1
+    private double credit = 0.0D;
+    private TaskScheduler.Task task = null;
+
+    /**
+     * Creates a new display scheduler.
+     *
+     * @param plugin         The plugin instance.
+     * @param updateInterval The number of ticks between two updates of the same player.
+     */
+    public DisplayScheduler(LightLevelDisplay plugin, int updateInterval) {
+        this.plugin = plugin;
+        int bucketCount = Math.max(1, updateInterval);
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /** Starts the repeating task, which runs every tick. */
+    public void start() {
+        if (task == null) {
+            task = plugin.getTaskScheduler().runGlobalTimer(this, 1L, 1L);
+        }
+    }
+
+    /** Stops the repeating task and forgets all players. */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        for (List<UUID> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Starts updating the display of a player.
+     *
+     * @param playerUUID The UUID of the player.
+     */
+    public synchronized void add(UUID playerUUID) {
+        // Put the player into the smallest bucket, so the work stays evenly spread over the ticks
+        List<UUID> smallest = buckets.get(0);
+        for (List<UUID> bucket : buckets) {
+            if (bucket.contains(playerUUID)) {
+                return;
+            }
+            if (bucket.size() < smallest.size()) {
+                smallest = bucket;
+            }
+        }
+        smallest.add(playerUUID);
+    }
+
+    /**
+     * Stops updating the display of a player.
+     *
+     * @param playerUUID The UUID of the player.
+     */
+    public synchronized void remove(UUID playerUUID) {
+        for (List<UUID> bucket : buckets) {
+            bucket.remove(playerUUID);
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        // Stretch the update interval while the server is lagging
+        credit = Math.min(1.0D, credit + plugin.getLoadScale());
+        if (credit < 1.0D) {
+            return;
+        }
+        credit -= 1.0D;
+
+        // Take the bucket of this tick and move on to the next one
+        List<UUID> bucket = buckets.get(currentBucket);
+        currentBucket = (currentBucket + 1) % buckets.size();
+
+        for (UUID playerUUID : bucket) {
+            Player player = plugin.getServer().getPlayer(playerUUID);
+
+            // Skip players who are no longer online, they are removed when they quit
+            if (player == null) {
+                continue;
+            }
+
+            plugin.getTaskScheduler().execute(player, () -> plugin.showLightLevel(player, player.getLocation()));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.ashkiano.lightleveldisplay;
+
+/**
+ * Remembers what was last displayed to a player, so identical updates can be dropped.
+ */
+public class DisplayState {
+
+    // The last displayed light level, or -1 if nothing has been displayed yet
+    private int lightLevel = -1;
+    private boolean canSpawn = false;
+    private DisplayChannel channel = null;
+    // System.nanoTime() of the last message that was actually sent
+    private long lastSentNanos = 0L;
+
+    /**
+     * Decides whether an update has to be sent and records it if so.
+     * <p>
+     * Updates that differ from the last displayed one are always sent. Identical updates are never sent
+     * again, except in channels that fade, like the action bar, where they are re-sent after the refresh
+     * interval to keep the message visible.
+     *
+     * @param lightLevel           The light level to display.
+     * @param canSpawn             Whether monsters can spawn at this light level.
+     * @param channel              The channel the message is displayed in.
+     * @param nowNanos             The current System.nanoTime().
+     * @param refreshIntervalNanos The interval after which an unchanged message in a fading channel is sent again.
+     * @return True if the update should be sent to the player.
+     */
+    public boolean update(int lightLevel, boolean canSpawn, DisplayChannel channel, long nowNanos, long refreshIntervalNanos) {
+        boolean unchanged = this.lightLevel == lightLevel && this.canSpawn == canSpawn && this.channel == channel;
+        if (unchanged && (!channel.isFading() || nowNanos - lastSentNanos < refreshIntervalNanos)) {
+            return false;
+        }
+
+        // Remember what is being sent now
+        this.lightLevel = lightLevel;
+        this.canSpawn = canSpawn;
+        this.channel = channel;
+        this.lastSentNanos = nowNanos;
+        return true;
+    }
+
+    /** Forgets what was last displayed, so the next update is always sent. */
+    public void reset() {
+        this.lightLevel = -1;
+        this.canSpawn = false;
+        this.channel = null;
+        this.lastSentNanos = 0L;
+    }
+}
@@ -0,0 +1,99 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+/**
+ * Schedules the work of the plugin on a region-threaded server like Folia, where every player belongs to the
+ * thread of its region and the Bukkit scheduler cannot be used.
+ * <p>
+ * The plugin is built against the Spigot API, so the schedulers of the server are looked up by reflection once,
+ * when the scheduler is created.
+ */
+public class FoliaTaskScheduler extends TaskScheduler {
+
+    private static final String SCHEDULER_PACKAGE = "io.papermc.paper.threadedregions.scheduler.";
+
+    private final Object globalScheduler;
+    private final Method globalExecute;
+    private final Method globalRunAtFixedRate;
+    private final Method taskCancel;
+    private final Method entityGetScheduler;
+    private final Method entityExecute;
+    private final Method isOwnedByCurrentRegion;
+
+    /**
+     * Creates a new scheduler for a region-threaded server.
+     *
+     * @param plugin The plugin instance.
+     * @throws IllegalStateException If the server does not have the expected schedulers.
+     */
+    public FoliaTaskScheduler(Plugin plugin) {
+        super(plugin);
+        try {
+            Class<?> globalSchedulerClass = Class.forName(SCHEDULER_PACKAGE + "GlobalRegionScheduler");
+            Class<?> entitySchedulerClass = Class.forName(SCHEDULER_PACKAGE + "EntityScheduler");
+            Class<?> scheduledTaskClass = Class.forName(SCHEDULER_PACKAGE + "ScheduledTask");
+            globalScheduler = Server.class.getMethod("getGlobalRegionScheduler").invoke(plugin.getServer());
+            globalExecute = globalSchedulerClass.getMethod("execute", Plugin.class, Runnable.class);
+            globalRunAtFixedRate = globalSchedulerClass.getMethod("runAtFixedRate", Plugin.class, Consumer.class,
+                    long.class, long.class);
+            taskCancel = scheduledTaskClass.getMethod("cancel");
+            entityGetScheduler = Entity.class.getMethod("getScheduler");
+            entityExecute = entitySchedulerClass.getMethod("execute", Plugin.class, Runnable.class, Runnable.class, long.class);
+            isOwnedByCurrentRegion = Server.class.getMethod("isOwnedByCurrentRegion", Entity.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The schedulers of the region-threaded server could not be found", e);
+        }
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return true;
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        invoke(globalExecute, globalScheduler, plugin, task);
+    }
+
+    @Override
+    public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        Consumer<Object> consumer = scheduledTask -> task.run();
+        Object scheduledTask = invoke(globalRunAtFixedRate, globalScheduler, plugin, consumer,
+                Math.max(1L, delayTicks), Math.max(1L, periodTicks));
+        return () -> invoke(taskCancel, scheduledTask);
+    }
+
+    @Override
+    public void runForPlayer(Player player, Runnable task) {
+        // The entity scheduler follows the player across regions and drops the task if the player is removed
+        Object entityScheduler = invoke(entityGetScheduler, player);
+        invoke(entityExecute, entityScheduler, plugin, task, null, 1L);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Player player) {
+        return (Boolean) invoke(isOwnedByCurrentRegion, plugin.getServer(), player);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            // Pass on what the server threw, for example when the plugin is already disabled
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to call " + method.getName(), e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to call " + method.getName(), e);
+        }
+    }
+}
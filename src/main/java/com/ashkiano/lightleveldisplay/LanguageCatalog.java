@@ -0,0 +1,81 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * All messages of one language, compiled once when the language is loaded.
+ * <p>
+ * The templates are stored in arrays indexed by {@link Message#ordinal()}, so looking up a message is a single
+ * array access. Messages without placeholders are translated up front, and the light level messages are
+ * pre-rendered into a {@link MessageTable}. A catalog is immutable and can be shared between threads.
+ */
+public final class LanguageCatalog {
+
+    private final String languageCode;
+    // The templates as written in the language file
+    private final String[] templates = new String[Message.values().length];
+    // The templates with translated color codes
+    private final String[] translated = new String[Message.values().length];
+    private final MessageTable messageTable;
+
+    private LanguageCatalog(String languageCode, ConfigurationSection languageConfig) {
+        this.languageCode = languageCode;
+        for (Message message : Message.values()) {
+            // Without an explicit default, keys missing from the file are read from the defaults of the
+            // configuration, which are the bundled file of the language
+            String template = languageConfig.getString(message.getKey());
+            if (template == null) {
+                template = message.getDefaultTemplate();
+            }
+            templates[message.ordinal()] = template;
+            translated[message.ordinal()] = LightLevelDisplay.translateColorCodes(template);
+        }
+        this.messageTable = MessageTable.compile(templates[Message.MONSTER_CAN_SPAWN.ordinal()],
+                templates[Message.MONSTER_CANNOT_SPAWN.ordinal()], templates[Message.SIDEBAR_TITLE.ordinal()]);
+    }
+
+    /**
+     * Compiles the messages of a loaded language file. Safe to call from any thread.
+     *
+     * @param languageCode   The code of the language.
+     * @param languageConfig The language configuration to read the message templates from.
+     * @return The compiled catalog.
+     */
+    public static LanguageCatalog compile(String languageCode, ConfigurationSection languageConfig) {
+        return new LanguageCatalog(languageCode, languageConfig);
+    }
+
+    public String getLanguageCode() {
+        return languageCode;
+    }
+
+    /**
+     * Returns a translated message without placeholders.
+     *
+     * @param message The message.
+     * @return The message with translated color codes.
+     */
+    public String get(Message message) {
+        return translated[message.ordinal()];
+    }
+
+    /**
+     * Fills in the placeholders of a message and translates its color codes afterwards.
+     *
+     * @param message   The message.
+     * @param arguments The values of the placeholders.
+     * @return The formatted message with translated color codes.
+     */
+    public String format(Message message, Object... arguments) {
+        return LightLevelDisplay.translateColorCodes(String.format(templates[message.ordinal()], arguments));
+    }
+
+    /**
+     * Returns the pre-rendered light level messages of the language.
+     *
+     * @return The message table.
+     */
+    public MessageTable getMessageTable() {
+        return messageTable;
+    }
+}
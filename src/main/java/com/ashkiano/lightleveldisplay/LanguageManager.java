@@ -0,0 +1,321 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Loads the language files and keeps a compiled {@link LanguageCatalog} for every language in use.
+ * <p>
+ * The configured language is loaded up front and used as the fallback. Other languages are loaded the first
+ * time a player with that client language needs them, on an async thread, and are cached afterwards.
+ * The bundled language files are only written to the data folder when they are missing, or when they were
+ * extracted by an older version of the plugin and not edited since, which is detected by their hashes. The file
+ * of the configured language is extracted right before it is loaded, the others in the background. Keys missing
+ * from a file are read from the bundled file of the language.
+ */
+public class LanguageManager {
+
+    // The languages bundled with the plugin
+    public static final String[] BUNDLED_LANGUAGES = {"en", "cs", "de", "es", "fr", "sk", "pl", "ru", "it", "el", "uk", "et"};
+    // Remembers the hash of every bundled file when it was extracted
+    private static final String HASHES_FILE = ".hashes.yml";
+
+    private final LightLevelDisplay plugin;
+    private final File folder;
+    // Guards the language files and the hashes file, so the configured language and all languages can be
+    // extracted from different threads
+    private final Object extractLock = new Object();
+    // Compiled catalogs by language code, guarded by this manager
+    private final Map<String, LanguageCatalog> catalogs = new HashMap<>();
+    // Callbacks waiting for a language that is currently being loaded, guarded by this manager
+    private final Map<String, List<Consumer<LanguageCatalog>>> loading = new HashMap<>();
+    // The languages that have a file in the data folder or in the jar
+    private volatile Set<String> availableLanguages = new HashSet<>(Arrays.asList(BUNDLED_LANGUAGES));
+    private volatile LanguageCatalog defaultCatalog = null;
+    private volatile boolean usePlayerLanguage = true;
+
+    public LanguageManager(LightLevelDisplay plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "languages");
+    }
+
+    /**
+     * Writes the bundled language files that are missing or outdated to the data folder, and looks up which
+     * languages are available. Only reads and writes files, so it can be called from any thread.
+     */
+    public void extractLanguageFiles() {
+        extract(BUNDLED_LANGUAGES);
+        scanAvailableLanguages();
+    }
+
+    /**
+     * Writes the file of a single bundled language to the data folder if it is missing or outdated, so the
+     * configured language can be loaded from an up-to-date file before all other languages are extracted.
+     *
+     * @param languageCode The code of the language, nothing is written if it is not bundled.
+     */
+    public void extractLanguageFile(String languageCode) {
+        if (Arrays.asList(BUNDLED_LANGUAGES).contains(languageCode)) {
+            extract(languageCode);
+        }
+    }
+
+    private void extract(String... languages) {
+        synchronized (extractLock) {
+            if (!folder.exists()) {
+                folder.mkdirs();
+            }
+            File hashesFile = new File(folder, HASHES_FILE);
+            YamlConfiguration hashes = YamlConfiguration.loadConfiguration(hashesFile);
+            boolean hashesChanged = false;
+
+            for (String lang : languages) {
+                byte[] bundled = readResource("languages/" + lang + ".yml");
+                if (bundled == null) {
+                    continue;
+                }
+                String bundledHash = hash(bundled);
+                File langFile = new File(folder, lang + ".yml");
+                try {
+                    if (langFile.exists()) {
+                        String diskHash = hash(Files.readAllBytes(langFile.toPath()));
+                        if (diskHash.equals(bundledHash)) {
+                            // Already up to date
+                            if (!bundledHash.equals(hashes.getString(lang))) {
+                                hashes.set(lang, bundledHash);
+                                hashesChanged = true;
+                            }
+                            continue;
+                        }
+                        if (!diskHash.equals(hashes.getString(lang))) {
+                            // Edited by the server owner, or extracted before hashes were remembered, so keep it
+                            continue;
+                        }
+                    }
+
+                    // Write next to the target and move it into place, so a reader never sees a partial file
+                    File temporary = new File(folder, lang + ".yml.tmp");
+                    Files.write(temporary.toPath(), bundled);
+                    Files.move(temporary.toPath(), langFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    hashes.set(lang, bundledHash);
+                    hashesChanged = true;
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to extract the language file " + langFile.getName(), e);
+                }
+            }
+
+            if (hashesChanged) {
+                try {
+                    hashes.save(hashesFile);
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to save " + HASHES_FILE + " of the language files", e);
+                }
+            }
+        }
+    }
+
+    /** Looks up which languages have a file in the data folder or in the jar. */
+    public void scanAvailableLanguages() {
+        Set<String> languages = new HashSet<>(Arrays.asList(BUNDLED_LANGUAGES));
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".yml") && !name.equals(HASHES_FILE));
+        if (files != null) {
+            for (File file : files) {
+                languages.add(file.getName().substring(0, file.getName().length() - 4).toLowerCase(Locale.ROOT));
+            }
+        }
+        availableLanguages = Collections.unmodifiableSet(languages);
+    }
+
+    /**
+     * Loads and compiles a language. This reads files, so it should not be called from the main thread,
+     * except for the configured language when the plugin is enabled.
+     *
+     * @param languageCode The code of the language.
+     * @return The compiled catalog.
+     */
+    public LanguageCatalog load(String languageCode) {
+        FileConfiguration config = YamlConfiguration.loadConfiguration(new File(folder, languageCode + ".yml"));
+
+        // Look for defaults in the jar, the bundled English file for languages that are not bundled
+        InputStream defConfigStream = plugin.getResource("languages/" + languageCode + ".yml");
+        if (defConfigStream == null) {
+            defConfigStream = plugin.getResource("languages/en.yml");
+        }
+        if (defConfigStream != null) {
+            Reader reader = new InputStreamReader(defConfigStream, StandardCharsets.UTF_8);
+            YamlConfiguration defConfig = YamlConfiguration.loadConfiguration(reader);
+            config.setDefaults(defConfig);
+        }
+        return LanguageCatalog.compile(languageCode, config);
+    }
+
+    /**
+     * Replaces the fallback language and forgets all other loaded languages, for example after a reload.
+     *
+     * @param catalog           The catalog of the configured language.
+     * @param usePlayerLanguage Whether players get messages in their client language when it is available.
+     */
+    public synchronized void setDefault(LanguageCatalog catalog, boolean usePlayerLanguage) {
+        this.defaultCatalog = catalog;
+        this.usePlayerLanguage = usePlayerLanguage;
+        catalogs.clear();
+        loading.clear();
+        catalogs.put(catalog.getLanguageCode(), catalog);
+    }
+
+    /**
+     * Returns the catalog of the configured language.
+     *
+     * @return The fallback catalog.
+     */
+    public LanguageCatalog getDefault() {
+        return defaultCatalog;
+    }
+
+    /**
+     * Finds the catalog for a client locale. If the language still has to be loaded, it is loaded on an async
+     * thread and the callback is called once it is ready. Can be called from any thread.
+     *
+     * @param locale   The client locale of the player, like 'en_us'.
+     * @param callback Called with the catalog, right away on the calling thread if it is already loaded,
+     *                 otherwise on the global thread.
+     */
+    public void request(String locale, Consumer<LanguageCatalog> callback) {
+        String languageCode = languageOf(locale);
+        LanguageCatalog catalog;
+        LanguageCatalog fallback;
+        synchronized (this) {
+            catalog = catalogs.get(languageCode);
+            fallback = defaultCatalog;
+            if (catalog == null) {
+                // Load every language only once, callers asking while it loads are called when it is ready
+                List<Consumer<LanguageCatalog>> waiting = loading.get(languageCode);
+                if (waiting != null) {
+                    waiting.add(callback);
+                    return;
+                }
+                waiting = new ArrayList<>();
+                waiting.add(callback);
+                loading.put(languageCode, waiting);
+            }
+        }
+        if (catalog != null) {
+            callback.accept(catalog);
+            return;
+        }
+
+        plugin.getTaskScheduler().runAsync(() -> {
+            LanguageCatalog loaded;
+            try {
+                loaded = load(languageCode);
+            } catch (RuntimeException e) {
+                // A broken language file must not keep its callers waiting, they get the configured language
+                // instead, and the language is not remembered, so it is loaded again once the file is fixed
+                plugin.getLogger().log(Level.WARNING, "Failed to load the language " + languageCode, e);
+                plugin.getTaskScheduler().runGlobal(() -> {
+                    List<Consumer<LanguageCatalog>> callbacks;
+                    LanguageCatalog catalogInstead;
+                    synchronized (this) {
+                        if (defaultCatalog != fallback) {
+                            return;
+                        }
+                        callbacks = loading.remove(languageCode);
+                        catalogInstead = defaultCatalog;
+                    }
+                    for (Consumer<LanguageCatalog> waitingCallback : callbacks) {
+                        waitingCallback.accept(catalogInstead);
+                    }
+                });
+                return;
+            }
+            plugin.getTaskScheduler().runGlobal(() -> {
+                List<Consumer<LanguageCatalog>> callbacks;
+                synchronized (this) {
+                    // Drop the result if the languages were reloaded in the meantime
+                    if (defaultCatalog != fallback) {
+                        return;
+                    }
+                    callbacks = loading.remove(languageCode);
+                    catalogs.put(languageCode, loaded);
+                }
+                for (Consumer<LanguageCatalog> waitingCallback : callbacks) {
+                    waitingCallback.accept(loaded);
+                }
+            });
+        });
+    }
+
+    /**
+     * Picks the language for a client locale: the full locale if there is a file for it, otherwise its language
+     * part, otherwise the configured language.
+     */
+    private String languageOf(String locale) {
+        LanguageCatalog fallback = defaultCatalog;
+        if (!usePlayerLanguage || locale == null || locale.isEmpty()) {
+            return fallback.getLanguageCode();
+        }
+        String normalized = locale.toLowerCase(Locale.ROOT).replace('-', '_');
+        Set<String> languages = availableLanguages;
+        if (languages.contains(normalized)) {
+            return normalized;
+        }
+        int separator = normalized.indexOf('_');
+        String language = separator < 0 ? normalized : normalized.substring(0, separator);
+        return languages.contains(language) ? language : fallback.getLanguageCode();
+    }
+
+    private byte[] readResource(String path) {
+        try (InputStream in = plugin.getResource(path)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read the bundled " + path, e);
+            return null;
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Updates the display of the players near a block that was placed or broken, if the block emits or blocks light,
+ * so placing a torch next to a standing player changes the display right away instead of once the player moves.
+ * <p>
+ * The players near the block are found in the {@link PlayerGrid}, and all players affected by the block changes
+ * of a tick are updated once on the next tick, when the server has updated the light.
+ */
+public class LightChangeRefresher implements Listener {
+
+    // Blocks that emit light in at least one of their states, names that do not exist in this version are skipped
+    private static final Set<Material> LIGHT_SOURCES = lightSources("TORCH", "WALL_TORCH", "SOUL_TORCH",
+            "SOUL_WALL_TORCH", "REDSTONE_TORCH", "REDSTONE_WALL_TORCH", "LANTERN", "SOUL_LANTERN", "GLOWSTONE",
+            "SEA_LANTERN", "JACK_O_LANTERN", "SHROOMLIGHT", "REDSTONE_LAMP", "CAMPFIRE", "SOUL_CAMPFIRE", "LAVA",
+            "LAVA_CAULDRON", "FIRE", "SOUL_FIRE", "BEACON", "CONDUIT", "END_ROD", "END_GATEWAY", "END_PORTAL",
+            "NETHER_PORTAL", "GLOW_LICHEN", "OCHRE_FROGLIGHT", "VERDANT_FROGLIGHT", "PEARLESCENT_FROGLIGHT",
+            "SEA_PICKLE", "MAGMA_BLOCK", "CRYING_OBSIDIAN", "RESPAWN_ANCHOR", "LIGHT", "CAVE_VINES",
+            "CAVE_VINES_PLANT", "BREWING_STAND", "ENCHANTING_TABLE", "ENDER_CHEST", "AMETHYST_CLUSTER",
+            "LARGE_AMETHYST_BUD", "MEDIUM_AMETHYST_BUD", "SMALL_AMETHYST_BUD", "FURNACE", "BLAST_FURNACE", "SMOKER",
+            "SCULK_CATALYST", "SCULK_SENSOR", "CALIBRATED_SCULK_SENSOR", "DRAGON_EGG", "BROWN_MUSHROOM",
+            "REDSTONE_ORE", "DEEPSLATE_REDSTONE_ORE");
+
+    private final LightLevelDisplay plugin;
+    private final PlayerGrid playerGrid;
+    // Players whose display is updated on the next tick
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private boolean started = false;
+
+    public LightChangeRefresher(LightLevelDisplay plugin, PlayerGrid playerGrid) {
+        this.plugin = plugin;
+        this.playerGrid = playerGrid;
+    }
+
+    /** Starts listening for block changes. */
+    public void start() {
+        if (!started) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            started = true;
+        }
+    }
+
+    /** Stops listening for block changes and forgets the pending updates. */
+    public void stop() {
+        if (started) {
+            HandlerList.unregisterAll(this);
+            started = false;
+        }
+        pending.clear();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        // The replaced block counts as well, for example when lava is replaced by a block
+        if (affectsLight(event.getBlockPlaced().getType()) || affectsLight(event.getBlockReplacedState().getType())) {
+            refreshAround(event.getBlock());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        if (affectsLight(event.getBlock().getType())) {
+            refreshAround(event.getBlock());
+        }
+    }
+
+    /**
+     * Queues an update for every player whose light level the block can change. Light spreads up to 15 blocks,
+     * which never reaches further than the neighbouring chunks.
+     */
+    private void refreshAround(Block block) {
+        playerGrid.forEachNear(block.getWorld(), block.getX() >> 4, block.getZ() >> 4, 1, pending::add);
+        if (!pending.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+            plugin.getTaskScheduler().runGlobal(this::flush);
+        }
+    }
+
+    private void flush() {
+        // Changes from now on are handled by the next flush
+        flushScheduled.set(false);
+        Iterator<UUID> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            UUID playerUUID = iterator.next();
+            iterator.remove();
+            Player player = plugin.getServer().getPlayer(playerUUID);
+            if (player != null) {
+                plugin.getTaskScheduler().execute(player, () -> plugin.refreshLightLevel(player));
+            }
+        }
+    }
+
+    private static boolean affectsLight(Material material) {
+        return material.isOccluding() || LIGHT_SOURCES.contains(material);
+    }
+
+    private static Set<Material> lightSources(String... names) {
+        Set<String> nameSet = new HashSet<>(Arrays.asList(names));
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        for (Material material : Material.values()) {
+            // Candles of every color and cakes with candles on them
+            String name = material.name();
+            if (nameSet.contains(name) || (!name.startsWith("LEGACY_") && (name.endsWith("CANDLE") || name.endsWith("CANDLE_CAKE")))) {
+                materials.add(material);
+            }
+        }
+        return materials;
+    }
+}
@@ -0,0 +1,330 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * Exports the light level and spawn verdict of every block in a square of chunks to a file, for the
+ * '/lightlevel export' command.
+ * <p>
+ * Chunks are analysed in parallel but written strictly in the order of {@link ChunkScan#square(int, int, int)},
+ * and only the chunks that are analysed but still wait for an earlier chunk are kept in memory. After every
+ * written chunk a small checkpoint file records how many chunks and bytes are complete, so an export that was
+ * interrupted by a restart continues where it stopped when the same command is run again. The checkpoint is
+ * deleted once the export is complete, so running the same command after that starts a fresh export.
+ * <p>
+ * The binary format (.llx) starts with a header of {@value #HEADER_SIZE} bytes: the magic number 'LLDX', the format
+ * version, the UID of the world, its minimum and maximum height, and the center chunk and radius of the export.
+ * Every chunk follows as its X and Z coordinate, the length of its payload (0 if the chunk was not loaded), and
+ * the payload compressed with deflate. The payload has one byte per block with the block light in the high and
+ * the sky light in the low four bits, followed by one bit per block that is set where monsters can spawn at
+ * night, both ordered by Y, then Z, then X. All numbers are big-endian.
+ * <p>
+ * The CSV format has one line per block that is not solid, because solid blocks are always dark.
+ */
+public class LightExport extends ChunkScan {
+
+    // 'LLDX'
+    private static final int MAGIC = 0x4C4C4458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 44;
+    // Size of the buffer every chunk is copied through when it is written
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File checkpointFile;
+    private final boolean csv;
+    private final int centerChunkX;
+    private final int centerChunkZ;
+    private final int radius;
+    private final UUID worldUID;
+
+    // Everything below is only used while holding the lock
+    private final Object lock = new Object();
+    // Analysed chunks waiting for an earlier chunk to be written, by their index
+    private final Map<Integer, byte[]> pending = new HashMap<>();
+    // Reused for every write, a direct buffer saves the copy the channel would otherwise make of a heap buffer
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(16);
+    private FileChannel channel = null;
+    private FileChannel checkpointChannel = null;
+    private int nextToWrite = 0;
+    private long position = 0L;
+    private volatile long bytesWritten = 0L;
+
+    /**
+     * Creates a new export of a square of chunks.
+     *
+     * @param folder        The folder to write the export to.
+     * @param sender        The sender to report the progress and the result to.
+     * @param catalog       The language to report in.
+     * @param world         The world to export.
+     * @param centerChunkX  The X coordinate of the chunk in the center.
+     * @param centerChunkZ  The Z coordinate of the chunk in the center.
+     * @param radius        The number of chunks around the center chunk to export.
+     * @param csv           True to write CSV, false to write the binary format.
+     * @param spawnRules    The rules that decide which blocks are spawnable.
+     * @param loadGenerated Whether chunks that are generated but not loaded are loaded for the export.
+     */
+    public LightExport(File folder, CommandSender sender, LanguageCatalog catalog, World world, int centerChunkX,
+                       int centerChunkZ, int radius, boolean csv, SpawnRules spawnRules, boolean loadGenerated) {
+        super(sender, catalog, world, square(centerChunkX, centerChunkZ, radius), spawnRules, loadGenerated);
+        // The same command always writes to the same file, which is what makes an export resumable
+        String name = world.getName() + "_" + centerChunkX + "_" + centerChunkZ + "_r" + radius + (csv ? ".csv" : ".llx");
+        this.file = new File(folder, name);
+        this.checkpointFile = new File(folder, name + ".checkpoint");
+        this.csv = csv;
+        this.centerChunkX = centerChunkX;
+        this.centerChunkZ = centerChunkZ;
+        this.radius = radius;
+        this.worldUID = world.getUID();
+    }
+
+    @Override
+    protected Message getName() {
+        return Message.EXPORT_NAME;
+    }
+
+    @Override
+    protected int open() throws IOException {
+        file.getParentFile().mkdirs();
+        synchronized (lock) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            checkpointChannel = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            // Continue after the last complete chunk of an earlier export, if there is one
+            long chunksDone = 0L;
+            long bytesDone = 0L;
+            if (checkpointChannel.size() >= checkpointBuffer.capacity()) {
+                checkpointBuffer.clear();
+                readFully(checkpointChannel, checkpointBuffer, 0L);
+                checkpointBuffer.flip();
+                chunksDone = checkpointBuffer.getLong();
+                bytesDone = checkpointBuffer.getLong();
+            }
+            if (chunksDone <= 0 || chunksDone > getChunks().length || bytesDone > channel.size() || !hasValidHeader()) {
+                chunksDone = 0L;
+                bytesDone = 0L;
+            }
+
+            if (chunksDone == 0) {
+                channel.truncate(0L);
+                position = 0L;
+                writeHeader();
+            } else {
+                // Drop whatever was written after the checkpoint, it may be an incomplete chunk
+                channel.truncate(bytesDone);
+                position = bytesDone;
+            }
+            nextToWrite = (int) chunksDone;
+            bytesWritten = position;
+            return nextToWrite;
+        }
+    }
+
+    @Override
+    protected void analyse(int index, long chunkKey, ChunkSnapshot snapshot) {
+        byte[] chunk = csv ? encodeCsv(chunkKey, snapshot) : encodeBinary(chunkKey, snapshot);
+        int written = 0;
+        try {
+            synchronized (lock) {
+                if (channel == null) {
+                    return;
+                }
+                pending.put(index, chunk);
+                // Write every chunk that is next in order, which may include chunks analysed earlier by other threads
+                byte[] next;
+                while ((next = pending.remove(nextToWrite)) != null) {
+                    write(next);
+                    nextToWrite++;
+                    written++;
+                }
+                if (written > 0) {
+                    writeCheckpoint();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        completed(written);
+    }
+
+    @Override
+    protected void close() {
+        synchronized (lock) {
+            pending.clear();
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (checkpointChannel != null) {
+                    checkpointChannel.close();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            channel = null;
+            checkpointChannel = null;
+        }
+    }
+
+    @Override
+    protected String describeProgress(int done, int total, long percent) {
+        return catalog.format(Message.EXPORT_PROGRESS, done, total, percent, bytesWritten / 1024L);
+    }
+
+    @Override
+    protected void complete(long elapsedNanos) {
+        // The file is closed by now, without the checkpoint the next export with the same command starts over
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            sender.sendMessage(catalog.format(Message.EXPORT_CHECKPOINT_NOT_DELETED, checkpointFile.getName()));
+        }
+        sender.sendMessage(catalog.format(Message.EXPORT_COMPLETE, getChunks().length, file.getName(),
+                bytesWritten / 1024L, elapsedNanos / 1_000_000_000L));
+    }
+
+    private byte[] encodeBinary(long chunkKey, ChunkSnapshot snapshot) {
+        ByteBuffer record;
+        if (snapshot == null) {
+            record = ByteBuffer.allocate(12);
+            record.putInt((int) (chunkKey >> 32)).putInt((int) chunkKey).putInt(0);
+            return record.array();
+        }
+
+        int blocks = (maxHeight - minHeight) * 256;
+        byte[] payload = new byte[blocks + blocks / 8];
+        int index = 0;
+        for (int y = minHeight; y < maxHeight; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    payload[index] = (byte) (snapshot.getBlockEmittedLight(x, y, z) << 4 | snapshot.getBlockSkyLight(x, y, z));
+                    if (spawnRules.isSpawnableBlock(snapshot, environment, x, y, z, NIGHT_SKY_DARKNESS, minHeight, maxHeight)) {
+                        payload[blocks + (index >>> 3)] |= (byte) (1 << (index & 7));
+                    }
+                    index++;
+                }
+            }
+        }
+
+        // Light changes rarely within a chunk, so the payload compresses very well
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] compressed = new byte[payload.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            record = ByteBuffer.allocate(12 + length);
+            record.putInt((int) (chunkKey >> 32)).putInt((int) chunkKey).putInt(length).put(compressed, 0, length);
+            return record.array();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] encodeCsv(long chunkKey, ChunkSnapshot snapshot) {
+        if (snapshot == null) {
+            return new byte[0];
+        }
+        int baseX = (int) (chunkKey >> 32) << 4;
+        int baseZ = (int) chunkKey << 4;
+        StringBuilder lines = new StringBuilder(64 * 1024);
+        for (int y = minHeight; y < maxHeight; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (snapshot.getBlockType(x, y, z).isSolid()) {
+                        continue;
+                    }
+                    lines.append(baseX + x).append(',').append(y).append(',').append(baseZ + z).append(',')
+                            .append(snapshot.getBlockEmittedLight(x, y, z)).append(',')
+                            .append(snapshot.getBlockSkyLight(x, y, z)).append(',')
+                            .append(spawnRules.isSpawnableBlock(snapshot, environment, x, y, z, NIGHT_SKY_DARKNESS, minHeight, maxHeight))
+                            .append('\n');
+                }
+            }
+        }
+        return lines.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void writeHeader() throws IOException {
+        if (csv) {
+            write("x,y,z,block_light,sky_light,spawnable_at_night\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putLong(worldUID.getMostSignificantBits()).putLong(worldUID.getLeastSignificantBits())
+                .putInt(minHeight).putInt(maxHeight)
+                .putInt(centerChunkX).putInt(centerChunkZ).putInt(radius);
+        write(header.array());
+    }
+
+    /** Checks whether the existing file was written for the same world and area with the same format. */
+    private boolean hasValidHeader() throws IOException {
+        if (csv) {
+            return channel.size() > 0;
+        }
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0L);
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == VERSION
+                && header.getLong() == worldUID.getMostSignificantBits() && header.getLong() == worldUID.getLeastSignificantBits()
+                && header.getInt() == minHeight && header.getInt() == maxHeight
+                && header.getInt() == centerChunkX && header.getInt() == centerChunkZ && header.getInt() == radius;
+    }
+
+    /** Appends data to the file through the reused direct buffer. */
+    private void write(byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(writeBuffer.capacity(), data.length - offset);
+            writeBuffer.clear();
+            writeBuffer.put(data, offset, length);
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                position += channel.write(writeBuffer, position);
+            }
+            offset += length;
+        }
+        bytesWritten = position;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(nextToWrite).putLong(position);
+        checkpointBuffer.flip();
+        while (checkpointBuffer.hasRemaining()) {
+            checkpointChannel.write(checkpointBuffer, checkpointBuffer.position());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -1,120 +1,753 @@
 package com.ashkiano.lightleveldisplay;
 
-import net.md_5.bungee.api.ChatMessageType;
-import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
-import org.json.JSONObject;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-//TODO upravit tak, aby si každý hráč mohl vybrat jestli chce to do chatu nebo bossbaru
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
 public class LightLevelDisplay extends JavaPlugin implements CommandExecutor, Listener {
 
-    // Store a map of player UUIDs to boolean values, indicating whether light level display is enabled for each player
-    private final Map<UUID, Boolean> lightLevelDisplayMap = new HashMap<>();
-    // Declare FileConfiguration and File objects to store the language configuration file
-    private FileConfiguration languageConfig = null;
-    private File languageConfigFile = null;
+    // Bit of the stored player preferences that is set when the light level display is enabled
+    private static final byte PREFERENCE_DISPLAY_ENABLED = 1;
+    // Bits of the stored player preferences that hold the chosen display channel (ordinal + 1, 0 for the default)
+    private static final int PREFERENCE_CHANNEL_SHIFT = 1;
+    private static final int PREFERENCE_CHANNEL_MASK = 0b1110;
+
+    // The display state of every online player, created on join and dropped on quit
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    // Sends the messages to the chosen channels and keeps the boss bars and sidebars of the players
+    private final DisplayRenderer displayRenderer = new DisplayRenderer(this);
+    // Counters and latencies of the display, shown by '/lightlevel stats'
+    private final PerformanceStats performanceStats = new PerformanceStats();
+    // Scales the work down while the server is lagging and limits the display updates of every player
+    private final LoadController loadController = new LoadController(this);
+    // The chunk every player with the display enabled is in, to find the players near a changed block
+    private final PlayerGrid playerGrid = new PlayerGrid();
+    // Registered for movement events only while the display needs them, see updateMovementListener()
+    private final Listener movementListener = new Listener() {
+    };
+    private boolean movementListenerRegistered = false;
+    // Runs the work on the main thread, or on the threads of the regions on region-threaded servers
+    private TaskScheduler taskScheduler = null;
+    // Repeating task that logs the statistics when 'stats-log-interval-minutes' is set, otherwise null
+    private TaskScheduler.Task statsLogTask = null;
+    // Submits the bStats metrics from its own background thread
+    private Metrics metrics = null;
+    // The parsed configuration, replaced as a whole when the plugin is reloaded
+    private volatile Settings settings = null;
+    // Loads the language files and keeps the compiled messages of every language in use
+    private LanguageManager languageManager = null;
+    // Repeating task that updates the display when the update mode is 'scheduler', otherwise null
+    private volatile DisplayScheduler displayScheduler = null;
+    // Samples light levels from chunk snapshots off the main thread when async sampling is enabled, otherwise null
+    private volatile LightSampler lightSampler = null;
+    // Shared cache of chunk snapshots for everything that reads blocks off the main thread
+    private SnapshotCache snapshotCache = null;
+    // Index of spawnable blocks per chunk section, used by everything that asks whether a block is spawnable
+    private SpawnIndex spawnIndex = null;
+    // Updates the display of nearby players when a block that emits or blocks light is placed or broken
+    private LightChangeRefresher lightChangeRefresher = null;
+    // Particle overlay of spawnable blocks around the players who enabled it
+    private SpawnOverlay spawnOverlay = null;
+    // Runs '/lightlevel audit' and '/lightlevel export' over whole areas without slowing down the server
+    private ChunkScanner chunkScanner = null;
+    // The PlaceholderAPI placeholders, only set and only loaded when PlaceholderAPI is installed
+    private LightLevelPlaceholders placeholders = null;
+    // Persists the display toggle of every player across restarts
+    private PreferenceStore preferenceStore = null;
+    // Preferences loaded during the async pre-login, waiting for the player to join
+    private final Map<UUID, Byte> loadedPreferences = new ConcurrentHashMap<>();
+    // Set while '/lightlevel reload' is loading the new configuration, so reloads do not overlap
+    private final AtomicBoolean reloading = new AtomicBoolean(false);
 
     @Override
     public void onEnable() {
+        // Pick the scheduler for the server before anything schedules work
+        taskScheduler = TaskScheduler.create(this);
+        if (taskScheduler.isRegionThreaded()) {
+            getLogger().info("Running on a region-threaded server, audits, exports and the sidebar are not available.");
+        }
+
         // Register the command executor and event listener when the plugin is enabled
         this.getCommand("lightlevel").setExecutor(this);
         getServer().getPluginManager().registerEvents(this, this);
         // Save the default configuration file if it does not already exist
         this.saveDefaultConfig();
+        // Parse the configuration once, the rest of the plugin only reads the parsed settings
+        settings = Settings.load(getConfig());
+        logProblems(settings);
 
-        // Create a directory named "languages" in the plugin's data folder
-        File languageFolder = new File(getDataFolder(), "languages");
-        if (!languageFolder.exists()) {
-            languageFolder.mkdirs();
+        // Load the configured language, which is used until the language of a player is loaded. Its file is
+        // extracted first, so the first start already uses it instead of the defaults in the jar
+        languageManager = new LanguageManager(this);
+        languageManager.extractLanguageFile(settings.getLanguageCode());
+        reloadLanguageConfig();
+        // Write the bundled language files that are missing or outdated without delaying the startup
+        taskScheduler.runAsync(languageManager::extractLanguageFiles);
+
+        // Open the preference store and restore the preferences of players who are already online, e.g. after a reload
+        preferenceStore = new PreferenceStore(new File(getDataFolder(), "preferences"), getLogger(),
+                settings.getPreferencesFlushIntervalSeconds());
+        for (Player player : getServer().getOnlinePlayers()) {
+            sessions.put(player.getUniqueId(), new PlayerSession(player.getUniqueId()));
+            loadPreferencesAsync(player.getUniqueId());
+            requestCatalog(player.getUniqueId(), player.getLocale());
         }
 
-        // Check if language files exist, if not, save them from the resources
-        String[] languages = {"en", "cs", "de", "es", "fr", "sk", "pl", "ru", "it", "el", "uk", "et"};
-        for (String lang : languages) {
-            File langFile = new File(languageFolder, lang + ".yml");
-            if (!langFile.exists()) {
-                this.saveResource("languages/" + lang + ".yml", false);
-            }
+        // Cache chunk snapshots for the async sampling and the overlay
+        snapshotCache = new SnapshotCache(this);
+        snapshotCache.start();
+        spawnIndex = new SpawnIndex(this, settings.getIndexMaxSections(), settings.getSpawnRules());
+        spawnIndex.start();
+
+        // Update the display of standing players when the light around them changes
+        lightChangeRefresher = new LightChangeRefresher(this, playerGrid);
+        lightChangeRefresher.start();
+
+        // Read light levels from chunk snapshots off the main thread if configured
+        if (settings.isAsyncSampling()) {
+            startLightSampler();
         }
 
-        // Reload the language config file
-        reloadLanguageConfig();
+        // Prepare the overlay of spawnable blocks, which players can toggle with '/lightlevel overlay'
+        spawnOverlay = new SpawnOverlay(this, snapshotCache, spawnIndex,
+                settings.getOverlayRadius(),
+                settings.getOverlayRescanIntervalTicks(),
+                settings.getOverlayMaxParticlesPerTick(),
+                settings.getOverlayMaxParticlesPerPlayer(),
+                settings.getOverlayMaxSnapshotsPerTick());
+        spawnOverlay.start();
+
+        // Prepare the scans of whole areas, which admins can start with '/lightlevel audit' and '/lightlevel export'
+        chunkScanner = new ChunkScanner(this, settings.getAuditChunksPerTick(), settings.getAuditTickBudgetNanos(),
+                settings.getAuditThreads());
+
+        // Provide placeholders to scoreboards and tab lists if PlaceholderAPI is installed, it is loaded first as a soft dependency
+        if (getServer().getPluginManager().isPluginEnabled("PlaceholderAPI")) {
+            placeholders = new LightLevelPlaceholders(this);
+            placeholders.register();
+        }
+
+        // Watch the tick times, before anything that follows the load scale starts working
+        loadController.configure(settings);
+        loadController.start();
+
+        // Update the display from a repeating task instead of from movement events if configured
+        if (settings.isSchedulerMode()) {
+            startDisplayScheduler();
+        }
 
         this.getLogger().info("Thank you for using the LightLevelDisplay plugin! If you enjoy using this plugin, please consider making a donation to support the development. You can donate at: https://donate.ashkiano.com");
 
-        Metrics metrics = new Metrics(this, 18811);
+        metrics = new Metrics(this, 18811, taskScheduler);
 
-        checkForUpdates();
+        // Log the statistics regularly if configured
+        if (settings.getStatsLogIntervalMinutes() > 0) {
+            startStatsLogTask();
+        }
+
+        // Check for updates in the background, so an unreachable update server cannot delay the startup
+        if (settings.isCheckForUpdates()) {
+            UpdateChecker updateChecker = new UpdateChecker(this, UpdateChecker.DEFAULT_URL, new File(getDataFolder(), "update-check.yml"),
+                    settings.getUpdateCheckCacheMillis(), settings.getUpdateCheckTimeoutMillis());
+            taskScheduler.runAsync(updateChecker::check);
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        // Stop the metrics thread, otherwise it keeps running after a reload of the plugin
+        if (metrics != null) {
+            metrics.shutdown();
+            metrics = null;
+        }
+        // Stop measuring the ticks
+        loadController.stop();
+        // Stop logging the statistics
+        if (statsLogTask != null) {
+            statsLogTask.cancel();
+            statsLogTask = null;
+        }
+        // Stop the repeating display task if it is running
+        if (displayScheduler != null) {
+            displayScheduler.stop();
+            displayScheduler = null;
+        }
+        // Stop sampling light levels asynchronously
+        if (lightSampler != null) {
+            lightSampler.stop();
+            lightSampler = null;
+        }
+        // Stop a running audit or export and its threads
+        if (chunkScanner != null) {
+            chunkScanner.stop();
+            chunkScanner = null;
+        }
+        // Remove the placeholders, otherwise PlaceholderAPI keeps the old instance of the plugin
+        if (placeholders != null) {
+            placeholders.unregister();
+            placeholders = null;
+        }
+        // Stop following block changes
+        if (lightChangeRefresher != null) {
+            lightChangeRefresher.stop();
+            lightChangeRefresher = null;
+        }
+        playerGrid.clear();
+        // Stop the overlay and drop the cached snapshots
+        if (spawnOverlay != null) {
+            spawnOverlay.stop();
+            spawnOverlay = null;
+        }
+        if (spawnIndex != null) {
+            spawnIndex.stop();
+            spawnIndex = null;
+        }
+        if (snapshotCache != null) {
+            snapshotCache.stop();
+            snapshotCache = null;
+        }
+        // Remove all boss bars and sidebars
+        displayRenderer.clearAll();
+        // Drop the sessions of all players, they are recreated when the plugin is enabled again
+        sessions.clear();
+        // Disabling the plugin unregisters all of its listeners
+        movementListenerRegistered = false;
+        // Write all preference changes that are still queued
+        if (preferenceStore != null) {
+            preferenceStore.close();
+            preferenceStore = null;
+        }
+        // Let the async pool finish what it was given and stop its threads
+        if (taskScheduler != null) {
+            taskScheduler.shutdown();
+        }
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // Show the size of the spawn index to admins, this also works from the console
+        if (args.length > 0 && args[0].equalsIgnoreCase("index")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            for (String line : describeIndex(catalog(sender))) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        // Show or reset the statistics of the display to admins, this also works from the console
+        if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                performanceStats.reset();
+                sender.sendMessage(catalog(sender).get(Message.STATS_RESET));
+                return true;
+            }
+            for (String line : describeStats(catalog(sender))) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        // Count the spawnable blocks of an area for admins, this also works from the console
+        if (args.length > 0 && args[0].equalsIgnoreCase("audit")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            return audit(sender, args);
+        }
+
+        // Export the light levels of an area to a file for admins
+        if (args.length > 0 && args[0].equalsIgnoreCase("export")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            return export(sender, args);
+        }
+
+        // Show the current tick time and the rates the plugin works at to admins, this also works from the console
+        if (args.length > 0 && args[0].equalsIgnoreCase("rates")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            for (String line : describeRates(catalog(sender))) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        // Reload the configuration and the language file without restarting the server, this also works from the console
+        if (args.length > 0 && args[0].equalsIgnoreCase("reload")) {
+            if (!sender.hasPermission(settings.getAdminPermissionNode())) {
+                sender.sendMessage(catalog(sender).get(Message.NO_PERMISSION));
+                return false;
+            }
+            reload(sender);
+            return true;
+        }
+
         // Check if the sender is a player. If not, send a message and return false
         if (!(sender instanceof Player)) {
-            sender.sendMessage(translateColorCodes(languageConfig.getString("not-a-player-message", "&cThis command can only be used by players.")));
+            sender.sendMessage(catalog(sender).get(Message.NOT_A_PLAYER));
             return false;
         }
 
-        // Cast the sender to Player
+        // Cast the sender to Player and get the messages in the language of the player
         Player player = (Player) sender;
+        LanguageCatalog catalog = catalog(player);
 
         // Check if the player has the necessary permission to use the command
-        boolean checkPermission = getConfig().getBoolean("check-permission", true);
-        if (checkPermission && !player.hasPermission(getConfig().getString("permission-node", "lightdisplay"))) {
+        Settings settings = this.settings;
+        if (settings.isCheckPermission() && !player.hasPermission(settings.getPermissionNode())) {
             // If not, send a message and return false
-            player.sendMessage(translateColorCodes(languageConfig.getString("no-permission-message", "&cYou don't have permission to use this command.")));
+            player.sendMessage(catalog.get(Message.NO_PERMISSION));
             return false;
         }
 
-        // Get the unique ID of the player
+        // Toggle the overlay of spawnable blocks instead of the display if requested
+        if (args.length > 0 && args[0].equalsIgnoreCase("overlay")) {
+            boolean overlayEnabled = spawnOverlay.toggle(player);
+            player.sendMessage(catalog.get(overlayEnabled ? Message.OVERLAY_ENABLED : Message.OVERLAY_DISABLED));
+            return true;
+        }
+
+        // Get the session of the player, which exists for as long as the player is online
         UUID playerUUID = player.getUniqueId();
+        PlayerSession session = sessions.computeIfAbsent(playerUUID, PlayerSession::new);
+
+        // Change the display channel of the player if requested
+        if (args.length > 0 && args[0].equalsIgnoreCase("mode")) {
+            DisplayChannel channel = args.length > 1 ? DisplayChannel.fromName(args[1]) : null;
+            if (channel == null) {
+                StringBuilder channels = new StringBuilder();
+                for (DisplayChannel available : DisplayChannel.values()) {
+                    if (displayRenderer.isSupported(available)) {
+                        channels.append(channels.length() == 0 ? "" : ", ").append(available.getName());
+                    }
+                }
+                player.sendMessage(catalog.format(Message.MODE_UNKNOWN, channels));
+                return false;
+            }
+            if (!displayRenderer.isSupported(channel)) {
+                player.sendMessage(catalog.format(Message.MODE_UNAVAILABLE, channel.getName()));
+                return true;
+            }
+
+            // Remove the boss bar or sidebar of the old channel and make sure the new channel gets the next update
+            displayRenderer.clear(player, playerUUID);
+            session.getDisplayState().reset();
+            session.setChannel(channel);
+            preferenceStore.save(playerUUID, preferences(session));
+
+            player.sendMessage(catalog.format(Message.MODE_CHANGED, channel.getName()));
+            return true;
+        }
 
-        // Get the current status of light level display for the player, defaulting to false if not present
-        boolean displayLightLevel = lightLevelDisplayMap.getOrDefault(playerUUID, false);
+        // Get the current status of light level display for the player
+        boolean displayLightLevel = session.isDisplayEnabled();
 
-        // Toggle the status of light level display for the player
-        lightLevelDisplayMap.put(playerUUID, !displayLightLevel);
+        // Toggle the status of light level display for the player and remember it for the next time
+        setDisplayEnabled(session, !displayLightLevel);
+        preferenceStore.save(playerUUID, preferences(session));
 
         // Prepare a message to inform the player whether light level display has been enabled or disabled
         String message = !displayLightLevel ?
-                languageConfig.getString("light-level-enabled", "&aLight level display has been enabled.") :
-                languageConfig.getString("light-level-disabled", "&cLight level display has been disabled.");
+                catalog.get(Message.LIGHT_LEVEL_ENABLED) :
+                catalog.get(Message.LIGHT_LEVEL_DISABLED);
 
         // Send the message to the player
-        player.sendMessage(translateColorCodes(message));
+        player.sendMessage(message);
 
         // Return true because the command has been executed successfully
         return true;
     }
 
+    /**
+     * Handles '/lightlevel audit &lt;radius&gt; [generated]', '/lightlevel audit world [world]' and '/lightlevel audit cancel'.
+     *
+     * @param sender The admin who started the audit.
+     * @param args   The arguments of the command.
+     * @return True if the command was valid.
+     */
+    private boolean audit(CommandSender sender, String[] args) {
+        if (!checkScansAvailable(sender)) {
+            return true;
+        }
+        LanguageCatalog catalog = catalog(sender);
+        String usage = catalog.get(Message.AUDIT_USAGE);
+        if (args.length < 2) {
+            sender.sendMessage(usage);
+            return false;
+        }
+
+        if (args[1].equalsIgnoreCase("cancel")) {
+            if (!chunkScanner.cancel()) {
+                sender.sendMessage(catalog.get(Message.SCAN_NOT_RUNNING));
+            }
+            return true;
+        }
+
+        boolean started;
+        if (args[1].equalsIgnoreCase("world")) {
+            // Audit the loaded chunks of the given world, or of the world the player is in
+            World world = args.length > 2 ? getServer().getWorld(args[2])
+                    : sender instanceof Player ? ((Player) sender).getWorld() : null;
+            if (world == null) {
+                sender.sendMessage(args.length > 2 ? catalog.format(Message.UNKNOWN_WORLD, args[2]) : usage);
+                return false;
+            }
+            started = chunkScanner.start(new SpawnAudit(this, sender, catalog, world, ChunkScan.loaded(world),
+                    settings.getSpawnRules(), false));
+        } else {
+            // Audit the chunks around the player
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(catalog.get(Message.NOT_A_PLAYER));
+                return false;
+            }
+            int radius;
+            try {
+                radius = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(usage);
+                return false;
+            }
+            int maxRadius = settings.getAuditMaxRadius();
+            if (radius < 0 || radius > maxRadius) {
+                sender.sendMessage(catalog.format(Message.RADIUS_OUT_OF_RANGE, maxRadius));
+                return false;
+            }
+            Location location = ((Player) sender).getLocation();
+            boolean loadGenerated = args.length > 2 && args[2].equalsIgnoreCase("generated");
+            long[] chunks = ChunkScan.square(location.getBlockX() >> 4, location.getBlockZ() >> 4, radius);
+            started = chunkScanner.start(new SpawnAudit(this, sender, catalog, location.getWorld(), chunks,
+                    settings.getSpawnRules(), loadGenerated));
+        }
+
+        if (!started) {
+            sender.sendMessage(catalog.format(Message.SCAN_ALREADY_RUNNING, "/lightlevel audit cancel"));
+        }
+        return true;
+    }
+
+    /**
+     * Handles '/lightlevel export &lt;radius&gt; [csv] [generated]' and '/lightlevel export cancel'.
+     *
+     * @param sender The admin who started the export.
+     * @param args   The arguments of the command.
+     * @return True if the command was valid.
+     */
+    private boolean export(CommandSender sender, String[] args) {
+        if (!checkScansAvailable(sender)) {
+            return true;
+        }
+        LanguageCatalog catalog = catalog(sender);
+        String usage = catalog.get(Message.EXPORT_USAGE);
+        if (args.length < 2) {
+            sender.sendMessage(usage);
+            return false;
+        }
+        if (args[1].equalsIgnoreCase("cancel")) {
+            if (!chunkScanner.cancel()) {
+                sender.sendMessage(catalog.get(Message.SCAN_NOT_RUNNING));
+            }
+            return true;
+        }
+
+        // Export the chunks around the player
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(catalog.get(Message.NOT_A_PLAYER));
+            return false;
+        }
+        int radius;
+        try {
+            radius = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            sender.sendMessage(usage);
+            return false;
+        }
+        int maxRadius = settings.getAuditMaxRadius();
+        if (radius < 0 || radius > maxRadius) {
+            sender.sendMessage(catalog.format(Message.RADIUS_OUT_OF_RANGE, maxRadius));
+            return false;
+        }
+        boolean csv = false;
+        boolean loadGenerated = false;
+        for (int i = 2; i < args.length; i++) {
+            csv |= args[i].equalsIgnoreCase("csv");
+            loadGenerated |= args[i].equalsIgnoreCase("generated");
+        }
+
+        // Running the same export again continues it if it was interrupted
+        Location location = ((Player) sender).getLocation();
+        LightExport export = new LightExport(new File(getDataFolder(), "exports"), sender, catalog, location.getWorld(),
+                location.getBlockX() >> 4, location.getBlockZ() >> 4, radius, csv, settings.getSpawnRules(), loadGenerated);
+        if (!chunkScanner.start(export)) {
+            sender.sendMessage(catalog.format(Message.SCAN_ALREADY_RUNNING, "/lightlevel export cancel"));
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether audits and exports can run on this server. The scanner takes the snapshots of many chunks
+     * from a single thread, which region-threaded servers do not allow.
+     *
+     * @param sender The admin who started the audit or export.
+     * @return True if the scan can run, otherwise the admin has been told why not.
+     */
+    private boolean checkScansAvailable(CommandSender sender) {
+        if (taskScheduler.isRegionThreaded()) {
+            sender.sendMessage(catalog(sender).get(Message.SCANS_UNAVAILABLE));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enables or disables the light level display for a player. Must be called from the thread that owns the player.
+     *
+     * @param session The session of the player.
+     * @param enabled True to enable the display, false to disable it.
+     */
+    private void setDisplayEnabled(PlayerSession session, boolean enabled) {
+        UUID playerUUID = session.getPlayerUUID();
+        session.setDisplayEnabled(enabled);
+
+        // Forget what was last displayed, so the first update after enabling is always sent
+        session.getDisplayState().reset();
+
+        // Remove the boss bar or sidebar when the display is disabled, and follow the player for block changes
+        // only while the display is enabled
+        Player player = getServer().getPlayer(playerUUID);
+        if (!enabled) {
+            displayRenderer.clear(player, playerUUID);
+            playerGrid.remove(playerUUID);
+        } else if (player != null) {
+            Location location = player.getLocation();
+            playerGrid.update(playerUUID, location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        }
+
+        // Let the repeating task know whether it should update this player
+        if (displayScheduler != null) {
+            if (enabled) {
+                displayScheduler.add(playerUUID);
+            } else {
+                displayScheduler.remove(playerUUID);
+            }
+        }
+        updateMovementListener();
+    }
+
+    /**
+     * Listens for movement events only while at least one player has the display enabled and the display is
+     * updated from movement, so movement costs nothing while nobody uses the display. Must be called whenever
+     * a display is toggled, a player quits, or the update mode changes.
+     */
+    private synchronized void updateMovementListener() {
+        boolean needed = false;
+        if (displayScheduler == null && isEnabled()) {
+            for (PlayerSession session : sessions.values()) {
+                if (session.isDisplayEnabled()) {
+                    needed = true;
+                    break;
+                }
+            }
+        }
+        if (needed == movementListenerRegistered) {
+            return;
+        }
+
+        if (needed) {
+            getServer().getPluginManager().registerEvent(PlayerMoveEvent.class, movementListener, EventPriority.NORMAL,
+                    (listener, event) -> {
+                        // Subclasses like PlayerTeleportEvent have their own handler list and never arrive here
+                        if (event instanceof PlayerMoveEvent) {
+                            onPlayerMove((PlayerMoveEvent) event);
+                        }
+                    }, this, false);
+        } else {
+            PlayerMoveEvent.getHandlerList().unregister(movementListener);
+        }
+        movementListenerRegistered = needed;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        // Read the preferences while the player is still logging in, which happens off the main thread
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            loadedPreferences.put(event.getUniqueId(), preferenceStore.load(event.getUniqueId()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        // A login that is denied after the pre-login never reaches the join, so its preferences are dropped here
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            loadedPreferences.remove(event.getPlayer().getUniqueId());
+        }
+    }
+
     @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        UUID playerUUID = event.getPlayer().getUniqueId();
+        PlayerSession session = new PlayerSession(playerUUID);
+        sessions.put(playerUUID, session);
+
+        Byte preferences = loadedPreferences.remove(playerUUID);
+        if (preferences != null) {
+            applyPreferences(session, preferences);
+        } else {
+            // The pre-login was missed, so read the preferences now, but still off the main thread
+            loadPreferencesAsync(playerUUID);
+        }
+
+        // Use the configured language until the language of the player is loaded
+        requestCatalog(playerUUID, event.getPlayer().getLocale());
+    }
+
+    @EventHandler
+    public void onPlayerLocaleChange(PlayerLocaleChangeEvent event) {
+        // The client sends its language shortly after joining and whenever the player changes it
+        requestCatalog(event.getPlayer().getUniqueId(), event.getLocale());
+    }
+
+    /**
+     * Looks up the messages in the language of a player, and switches the player to them once they are loaded.
+     *
+     * @param playerUUID The UUID of the player.
+     * @param locale     The client locale of the player.
+     */
+    private void requestCatalog(UUID playerUUID, String locale) {
+        languageManager.request(locale, catalog -> {
+            // Skip players who left in the meantime
+            PlayerSession session = sessions.get(playerUUID);
+            Player player = getServer().getPlayer(playerUUID);
+            if (session != null && player != null && session.getCatalog() != catalog) {
+                session.setCatalog(catalog);
+                // Send the next update again in the new language
+                taskScheduler.execute(player, () -> session.getDisplayState().reset());
+            }
+        });
+    }
+
+    /**
+     * Returns the messages in the language of a command sender.
+     *
+     * @param sender The player or the console.
+     * @return The catalog of the player, or of the configured language.
+     */
+    private LanguageCatalog catalog(CommandSender sender) {
+        if (sender instanceof Player) {
+            PlayerSession session = sessions.get(((Player) sender).getUniqueId());
+            LanguageCatalog catalog = session != null ? session.getCatalog() : null;
+            if (catalog != null) {
+                return catalog;
+            }
+        }
+        return languageManager.getDefault();
+    }
+
+    private void loadPreferencesAsync(UUID playerUUID) {
+        taskScheduler.runAsync(() -> {
+            byte preferences = preferenceStore.load(playerUUID);
+            taskScheduler.runForPlayer(playerUUID, player -> {
+                // Skip players who left in the meantime
+                PlayerSession session = sessions.get(playerUUID);
+                if (session != null) {
+                    applyPreferences(session, preferences);
+                }
+            });
+        });
+    }
+
+    private void applyPreferences(PlayerSession session, byte preferences) {
+        int channelIndex = ((preferences & PREFERENCE_CHANNEL_MASK) >> PREFERENCE_CHANNEL_SHIFT) - 1;
+        // A channel the server does not support falls back to the default, for example the sidebar after moving
+        // the world to a region-threaded server
+        if (channelIndex >= 0 && channelIndex < DisplayChannel.values().length
+                && displayRenderer.isSupported(DisplayChannel.values()[channelIndex])) {
+            session.setChannel(DisplayChannel.values()[channelIndex]);
+        }
+        setDisplayEnabled(session, (preferences & PREFERENCE_DISPLAY_ENABLED) != 0);
+    }
+
+    private byte preferences(PlayerSession session) {
+        int preferences = session.isDisplayEnabled() ? PREFERENCE_DISPLAY_ENABLED : 0;
+        DisplayChannel channel = session.getChannel();
+        if (channel != null) {
+            preferences |= (channel.ordinal() + 1) << PREFERENCE_CHANNEL_SHIFT;
+        }
+        return (byte) preferences;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerUUID = event.getPlayer().getUniqueId();
+
+        // Drop the session of the player, the preferences were already saved when they were changed
+        sessions.remove(playerUUID);
+        if (displayScheduler != null) {
+            displayScheduler.remove(playerUUID);
+        }
+        loadController.remove(playerUUID);
+        playerGrid.remove(playerUUID);
+        updateMovementListener();
+
+        // Remove the boss bar and sidebar of the player
+        displayRenderer.clear(event.getPlayer(), playerUUID);
+    }
+
+    /**
+     * Updates the display of a player who moved. Not annotated as an event handler, because it is registered
+     * and unregistered by {@link #updateMovementListener()} depending on whether anyone needs it.
+     *
+     * @param event The movement event.
+     */
     public void onPlayerMove(PlayerMoveEvent event) {
         // Handle the PlayerMoveEvent
+        performanceStats.moveEvent();
 
         Player player = event.getPlayer();
-        UUID playerUUID = player.getUniqueId();
 
         // If the player has not enabled the light level display, do nothing
-        if (!lightLevelDisplayMap.getOrDefault(playerUUID, false)) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null || !session.isDisplayEnabled()) {
+            performanceStats.moveRejectedDisabled();
             return;
         }
 
@@ -123,123 +756,477 @@ public class LightLevelDisplay extends JavaPlugin implements CommandExecutor, Li
 
         // If the player has not actually moved to a different block, do nothing
         if (to == null || (from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ())) {
+            performanceStats.moveRejectedSameBlock();
+            return;
+        }
+
+        // Limit the updates of players who move very fast, the last dropped update is made once the limit allows
+        if (!loadController.tryAcquire(session)) {
+            performanceStats.moveRejectedRateLimit();
             return;
         }
 
-        // Get the light level of the block the player moved to
-        int lightLevel = to.getBlock().getLightLevel();
+        long start = System.nanoTime();
+        showLightLevel(player, to);
+        performanceStats.moveHandled(System.nanoTime() - start);
+    }
 
-        // Prepare the message to send to the player, based on the light level
-        String monsterSpawnMessage;
-        if (lightLevel <= 7) { // Monsters can spawn at light level 7 or lower
-            monsterSpawnMessage = languageConfig.getString("monster-can-spawn-message", "&cMonsters can spawn at this light level of %s.");
-        } else {
-            monsterSpawnMessage = languageConfig.getString("monster-cannot-spawn-message", "&aMonsters cannot spawn at this light level of %s.");
+    /**
+     * Measures the light level at the given location and sends it to the player. With async sampling the
+     * light level is read from a chunk snapshot and sent on a later tick, otherwise it is read and sent right away.
+     * Must be called from the thread that owns the player.
+     *
+     * @param player   The player to send the light level to.
+     * @param location The location to measure the light level at.
+     */
+    public void showLightLevel(Player player, Location location) {
+        performanceStats.sample();
+        // Keep track of the chunk the player is in, so block changes near the player update the display
+        playerGrid.update(player.getUniqueId(), location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        if (lightSampler != null) {
+            lightSampler.request(player, location);
+            return;
         }
 
-        // Replace the placeholder with the actual light level
-        monsterSpawnMessage = String.format(monsterSpawnMessage, lightLevel);
+        // Get the light level of the block at the location
+        Block block = location.getBlock();
+        int lightLevel = block.getLightLevel();
 
-        // Check the configuration to see whether to display the message in the action bar or in the chat
-        boolean displayInActionbar = getConfig().getBoolean("display-in-actionbar", true);
-        if (displayInActionbar) {
-            // Display the message in the action bar
-            player.spigot().sendMessage(ChatMessageType.ACTION_BAR, TextComponent.fromLegacyText(translateColorCodes(monsterSpawnMessage)));
-        } else {
-            // Display the message in the chat
-            player.sendMessage(translateColorCodes(monsterSpawnMessage));
+        // Ask the spawn index whether monsters can spawn at the location
+        boolean canSpawn = spawnIndex.isSpawnable(block);
+        displayLightLevel(player, lightLevel, block.getLightFromSky(), block.getLightFromBlocks(), canSpawn);
+    }
+
+    /**
+     * Measures the light level at a player and remembers it without sending it, for the placeholders of players
+     * who do not use the display or whose last sample is too old. Must be called from the thread that owns the player.
+     *
+     * @param player The player to measure the light level at.
+     */
+    public void sampleLightLevel(Player player) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null) {
+            return;
         }
+        Location location = player.getLocation();
+        Block block = location.getBlock();
+        boolean canSpawn = spawnIndex.isSpawnable(block);
+        session.recordSample(block.getLightLevel(), block.getLightFromSky(), block.getLightFromBlocks(), canSpawn,
+                System.nanoTime());
     }
 
-    public static String translateColorCodes(String message) {
-        // Translate Bukkit color codes (denoted with '&') into actual color codes
-        String translated = ChatColor.translateAlternateColorCodes('&', message);
+    /**
+     * Updates the display of a player because a block that emits or blocks light changed near the player.
+     * Must be called from the thread that owns the player.
+     *
+     * @param player The player to update the display of.
+     */
+    public void refreshLightLevel(Player player) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null || !session.isDisplayEnabled()) {
+            return;
+        }
+        performanceStats.lightChangeRefresh();
 
-        // Define a regular expression pattern that matches hex color codes (denoted with '&#')
-        Pattern hexPattern = Pattern.compile("&#([A-Fa-f0-9]{6})");
+        // Block changes count towards the update limit of the player like movement does
+        if (loadController.tryAcquire(session)) {
+            showLightLevel(player, player.getLocation());
+        }
+    }
 
-        // Create a matcher that will match the given pattern in the translated message
-        Matcher matcher = hexPattern.matcher(translated);
+    /**
+     * Sends an already measured light level to the player, unless the player already sees the same message.
+     *
+     * @param player     The player to send the light level to.
+     * @param lightLevel The light level between 0 and 15.
+     * @param skyLight   The light from the sky between 0 and 15, kept for the placeholders.
+     * @param blockLight The light from blocks between 0 and 15, kept for the placeholders.
+     * @param canSpawn   Whether monsters can spawn at this light level.
+     */
+    public void displayLightLevel(Player player, int lightLevel, int skyLight, int blockLight, boolean canSpawn) {
+        // Nothing to do if the player left in the meantime
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        session.recordSample(lightLevel, skyLight, blockLight, canSpawn, now);
 
-        // Create a new buffer with sufficient initial capacity to avoid reallocation
-        // A hex color code requires 14 characters, so assuming the worst case that all codes are hex codes
-        // Each character in the original message is either a normal character (requiring one character in the buffer)
-        // or part of a hex code (requiring 14/7 = 2 characters in the buffer)
-        StringBuffer buffer = new StringBuffer(translated.length() + 4 * 8);
+        // Use the channel the player has chosen, or the configured default channel
+        Settings settings = this.settings;
+        DisplayChannel channel = session.getChannel();
+        if (channel == null) {
+            channel = settings.getDefaultChannel();
+        }
 
-        // Find all hex color codes in the translated message
-        while (matcher.find()) {
-            // Get the actual hex code (without the '&#' prefix)
-            String group = matcher.group(1);
+        // Drop the update if the player already sees the same message
+        if (!session.getDisplayState().update(lightLevel, canSpawn, channel, now, settings.getRefreshIntervalNanos())) {
+            performanceStats.messageSuppressed();
+            return;
+        }
 
-            // Replace the found hex code with the corresponding color code
-            // A color code consists of the color character (ChatColor.COLOR_CHAR) followed by 'x',
-            // and then pairs of color characters and hex code characters
-            matcher.appendReplacement(buffer, ChatColor.COLOR_CHAR + "x" +
-                    ChatColor.COLOR_CHAR + group.charAt(0) + ChatColor.COLOR_CHAR + group.charAt(1) +
-                    ChatColor.COLOR_CHAR + group.charAt(2) + ChatColor.COLOR_CHAR + group.charAt(3) +
-                    ChatColor.COLOR_CHAR + group.charAt(4) + ChatColor.COLOR_CHAR + group.charAt(5)
-            );
+        // Display the pre-rendered message of the player's language in the channel
+        LanguageCatalog catalog = session.getCatalog();
+        if (catalog == null) {
+            catalog = languageManager.getDefault();
         }
+        long start = System.nanoTime();
+        displayRenderer.render(player, channel, catalog.getMessageTable(), lightLevel, canSpawn);
+        performanceStats.messageSent(System.nanoTime() - start);
+    }
 
-        // Append the remainder of the translated message to the buffer and convert the buffer to a string
-        return matcher.appendTail(buffer).toString();
+    /**
+     * Returns the parsed configuration. Safe to call from any thread, the settings are replaced as a whole on reload.
+     *
+     * @return The current settings.
+     */
+    public Settings getSettings() {
+        return settings;
     }
 
-    public void reloadLanguageConfig() {
-        // Reload the language config file when called
-        String languageCode = getConfig().getString("language-code", "en");
-        if (languageConfigFile == null) {
-            languageConfigFile = new File(getDataFolder() + "/languages", languageCode + ".yml");
+    /**
+     * Returns the scheduler that runs the work of the plugin on the right threads.
+     *
+     * @return The scheduler for the running server.
+     */
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+
+    /**
+     * Returns how much of its normal work the plugin should currently do. Safe to call from any thread.
+     *
+     * @return The load scale between the configured minimum and 1, lower while the server is lagging.
+     */
+    public double getLoadScale() {
+        return loadController.getScale();
+    }
+
+    /**
+     * Describes the size of the spawn index and the spawn rules, for '/lightlevel index'.
+     *
+     * @param catalog The language to describe them in.
+     * @return Lines describing the index and the rules.
+     */
+    private List<String> describeIndex(LanguageCatalog catalog) {
+        SpawnIndex.Usage usage = spawnIndex.getUsage();
+        List<String> lines = new ArrayList<>();
+        lines.add(catalog.format(Message.INDEX_SECTIONS, usage.sections, usage.maxSections, usage.allocated));
+        lines.add(catalog.format(Message.INDEX_SPAWNABLE, usage.spawnable));
+        lines.add(catalog.format(Message.INDEX_MEMORY, usage.bytes / 1024L));
+        lines.add(catalog.format(Message.INDEX_HIT_RATE, usage.lookups == 0 ? 0 : usage.hits * 100L / usage.lookups,
+                usage.lookups, usage.evictions));
+        SpawnRules spawnRules = settings.getSpawnRules();
+        for (World.Environment environment : spawnRules.getEnvironments()) {
+            lines.add(catalog.format(Message.INDEX_SPAWN_RULES, environment.name().toLowerCase(Locale.ROOT),
+                    spawnRules.getMaxLight(environment), spawnRules.getMaxBlockLight(environment),
+                    spawnRules.getSurfaceCount(environment)));
         }
-        languageConfig = YamlConfiguration.loadConfiguration(languageConfigFile);
+        return lines;
+    }
+
+    /**
+     * Describes the statistics of the display pipeline, for '/lightlevel stats' and the log.
+     *
+     * @param catalog The language to describe them in.
+     * @return Lines describing the statistics.
+     */
+    private List<String> describeStats(LanguageCatalog catalog) {
+        PerformanceStats stats = performanceStats;
+        long seconds = stats.getElapsedSeconds();
+        long sent = stats.getMessagesSent();
+        long suppressed = stats.getMessagesSuppressed();
+        long offered = sent + suppressed;
+        List<String> lines = new ArrayList<>();
+        lines.add(catalog.format(Message.STATS_HEADER, seconds));
+        lines.add(catalog.format(Message.STATS_MOVE_EVENTS, stats.getMoveEvents(), stats.getMoveEvents() / seconds,
+                stats.getMoveRejectedDisabled(), stats.getMoveRejectedSameBlock(), stats.getMoveRejectedRateLimit()));
+        lines.add(catalog.format(Message.STATS_SAMPLES, stats.getSamples(), stats.getSamples() / seconds,
+                stats.getLightChangeRefreshes()));
+        lines.add(catalog.format(Message.STATS_MESSAGES, sent, suppressed, offered == 0 ? 0 : suppressed * 100 / offered));
+        lines.add(describeLatency(catalog, Message.STATS_MOVE_LATENCY, stats.getMoveLatency()));
+        lines.add(describeLatency(catalog, Message.STATS_SEND_LATENCY, stats.getSendLatency()));
+        return lines;
+    }
+
+    private static String describeLatency(LanguageCatalog catalog, Message message, LatencyHistogram histogram) {
+        return catalog.format(message, histogram.getCount(), micros(histogram.getMean()),
+                micros(histogram.getPercentile(50)), micros(histogram.getPercentile(99)),
+                micros(histogram.getPercentile(99.9)), micros(histogram.getMax()));
+    }
+
+    private static String micros(long nanos) {
+        return oneDecimal(nanos / 1000.0D);
+    }
+
+    private static String oneDecimal(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
 
-        // Look for defaults in the jar
-        InputStream defConfigStream = this.getResource("languages/" + languageCode + ".yml");
-        if (defConfigStream != null) {
-            Reader reader = new InputStreamReader(defConfigStream);
-            YamlConfiguration defConfig = YamlConfiguration.loadConfiguration(reader);
-            languageConfig.setDefaults(defConfig);
+    /**
+     * Describes the rates the display, the overlay and the scans currently work at, for '/lightlevel rates'.
+     *
+     * @param catalog The language to describe them in.
+     * @return Lines describing the rates.
+     */
+    private List<String> describeRates(LanguageCatalog catalog) {
+        Settings settings = this.settings;
+        LoadController load = loadController;
+        double scale = load.getScale();
+        double tickMillis = load.getAverageTickMillis();
+        List<String> lines = new ArrayList<>();
+        lines.add(catalog.format(Message.RATES_TICK, oneDecimal(tickMillis), oneDecimal(Math.min(20.0D, 1000.0D / tickMillis))));
+        if (load.isAdaptive()) {
+            lines.add(catalog.format(Message.RATES_SCALE_ADAPTIVE, Math.round(scale * 100.0D),
+                    oneDecimal(load.getSlowTickTps()), Math.round(load.getMinScale() * 100.0D)));
+        } else {
+            lines.add(catalog.format(Message.RATES_SCALE_FIXED, Math.round(scale * 100.0D)));
+        }
+        lines.add(catalog.format(Message.RATES_PLAYER_UPDATES, oneDecimal(load.getPlayerRate() * scale),
+                oneDecimal(load.getPlayerRate()), (int) load.getPlayerBurst()));
+        lines.add(catalog.format(Message.RATES_WAITING, load.getDeferredCount()));
+        if (displayScheduler != null) {
+            lines.add(catalog.format(Message.RATES_DISPLAY_TASK, oneDecimal(settings.getUpdateIntervalTicks() / scale),
+                    settings.getUpdateIntervalTicks()));
         }
+        lines.add(catalog.format(Message.RATES_OVERLAY, Math.max(1, (int) (settings.getOverlayMaxParticlesPerTick() * scale)),
+                settings.getOverlayMaxParticlesPerTick()));
+        lines.add(catalog.format(Message.RATES_SCANS, Math.max(1, (int) (settings.getAuditChunksPerTick() * scale)),
+                settings.getAuditChunksPerTick()));
+        return lines;
     }
 
-    private void checkForUpdates() {
-        try {
-            String pluginName = this.getDescription().getName();
-            URL url = new URL("https://plugins.ashkiano.com/version_check.php?plugin=" + pluginName);
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setRequestMethod("GET");
-
-            int responseCode = con.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
+    /**
+     * Checks whether the player has the light level display enabled. Safe to call from any thread.
+     *
+     * @param playerUUID The UUID of the player.
+     * @return True if the player is online and has the display enabled.
+     */
+    public boolean isDisplayEnabled(UUID playerUUID) {
+        PlayerSession session = sessions.get(playerUUID);
+        return session != null && session.isDisplayEnabled();
+    }
+
+    /**
+     * Returns the session of an online player. Safe to call from any thread.
+     *
+     * @param playerUUID The UUID of the player.
+     * @return The session, or null if the player is not online.
+     */
+    public PlayerSession getSession(UUID playerUUID) {
+        return sessions.get(playerUUID);
+    }
+
+    /**
+     * Translates '&amp;' color codes and '&amp;#rrggbb' hex color codes into Minecraft color codes.
+     *
+     * @param message The message to translate.
+     * @return The translated message.
+     */
+    public static String translateColorCodes(String message) {
+        // Translate both kinds of color codes in a single pass, recently translated messages come from a cache
+        return ColorCodes.translate(message);
+    }
+
+    public void reloadLanguageConfig() {
+        // Reload the configured language and compile all of its messages once, instead of on every use
+        languageManager.setDefault(languageManager.load(settings.getLanguageCode()), settings.isUsePlayerLanguage());
+    }
+
+    /**
+     * Reloads the configuration and the language file. Everything is read and parsed on an async thread,
+     * and only the finished settings and messages are swapped in on the global thread.
+     *
+     * @param sender The sender to report the result to.
+     */
+    private void reload(CommandSender sender) {
+        if (!reloading.compareAndSet(false, true)) {
+            sender.sendMessage(catalog(sender).get(Message.RELOAD_IN_PROGRESS));
+            return;
+        }
+        long start = System.nanoTime();
+        sender.sendMessage(catalog(sender).get(Message.RELOADING));
+
+        taskScheduler.runAsync(() -> {
+            // Until the settings are handed to the global thread, this thread is responsible for the flag
+            boolean handedOver = false;
+            try {
+                // Restore the default configuration if it was deleted
+                File configFile = new File(getDataFolder(), "config.yml");
+                if (!configFile.exists()) {
+                    saveResource("config.yml", false);
                 }
-                in.close();
-
-                String jsonResponse = response.toString();
-                JSONObject jsonObject = new JSONObject(jsonResponse);
-                if (jsonObject.has("error")) {
-                    this.getLogger().warning("Error when checking for updates: " + jsonObject.getString("error"));
-                } else {
-                    String latestVersion = jsonObject.getString("latest_version");
-
-                    String currentVersion = this.getDescription().getVersion();
-                    if (currentVersion.equals(latestVersion)) {
-                        this.getLogger().info("This plugin is up to date!");
-                    } else {
-                        this.getLogger().warning("There is a newer version (" + latestVersion + ") available! Please update!");
+
+                // Unlike loadConfiguration(), load() reports a broken file instead of silently returning an empty one
+                YamlConfiguration config = new YamlConfiguration();
+                config.load(configFile);
+                Settings newSettings = Settings.load(config);
+                logProblems(newSettings);
+                // The configured language may have changed to one that was not extracted yet
+                languageManager.extractLanguageFile(newSettings.getLanguageCode());
+                LanguageCatalog newCatalog = languageManager.load(newSettings.getLanguageCode());
+                // Pick up language files that were added or removed
+                languageManager.scanAvailableLanguages();
+
+                taskScheduler.runGlobal(() -> {
+                    try {
+                        List<String> restartRequired = applySettings(newSettings, newCatalog);
+                        // Reported in the reloaded language
+                        LanguageCatalog catalog = catalog(sender);
+                        sender.sendMessage(catalog.format(Message.RELOADED, (System.nanoTime() - start) / 1_000_000L));
+                        if (!restartRequired.isEmpty()) {
+                            sender.sendMessage(catalog.format(Message.RELOAD_RESTART_REQUIRED, String.join(", ", restartRequired)));
+                        }
+                        // Invalid values are replaced by their defaults, tell the admin which ones
+                        for (String problem : newSettings.getProblems()) {
+                            sender.sendMessage(catalog.format(Message.RELOAD_INVALID_VALUE, problem));
+                        }
+                    } catch (RuntimeException e) {
+                        reloadFailed(sender, e);
+                    } finally {
+                        reloading.set(false);
                     }
+                });
+                handedOver = true;
+            } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+                // Runtime failures, like a message with a broken format, must not leave the reload stuck either
+                reloadFailed(sender, e);
+            } finally {
+                if (!handedOver) {
+                    reloading.set(false);
                 }
-            } else {
-                this.getLogger().warning("Failed to check for updates. Response code: " + responseCode);
             }
-        } catch (Exception e) {
-            this.getLogger().warning("Failed to check for updates. Error: " + e.getMessage());
+        });
+    }
+
+    /** Logs a failed reload and reports it to the sender who started it. */
+    private void reloadFailed(CommandSender sender, Exception e) {
+        getLogger().log(Level.WARNING, "Failed to reload the configuration", e);
+        String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        taskScheduler.runGlobal(() -> sender.sendMessage(catalog(sender).format(Message.RELOAD_FAILED, reason)));
+    }
+
+    /**
+     * Swaps in reloaded settings and messages, and restarts the components whose settings changed.
+     * Must be called from the global thread.
+     *
+     * @return The names of the changed settings that only take effect after a restart.
+     */
+    private List<String> applySettings(Settings newSettings, LanguageCatalog newCatalog) {
+        Settings oldSettings = settings;
+        settings = newSettings;
+        loadController.configure(newSettings);
+        languageManager.setDefault(newCatalog, newSettings.isUsePlayerLanguage());
+        // The spawn rules are compiled anew on every reload, the index rebuilds its sections with them
+        spawnIndex.setRules(newSettings.getSpawnRules());
+
+        // Send the next update to everyone again, it may look different now, and reload the languages of the players
+        for (PlayerSession session : sessions.values()) {
+            session.setCatalog(null);
+            Player player = getServer().getPlayer(session.getPlayerUUID());
+            if (player != null) {
+                taskScheduler.execute(player, () -> session.getDisplayState().reset());
+                requestCatalog(session.getPlayerUUID(), player.getLocale());
+            }
         }
+
+        // Switch the update mode, or the update interval of the repeating task
+        if (oldSettings.isSchedulerMode() != newSettings.isSchedulerMode()
+                || oldSettings.getUpdateIntervalTicks() != newSettings.getUpdateIntervalTicks()) {
+            if (displayScheduler != null) {
+                displayScheduler.stop();
+                displayScheduler = null;
+            }
+            if (newSettings.isSchedulerMode()) {
+                startDisplayScheduler();
+            }
+            updateMovementListener();
+        }
+
+        // Switch between sampling on the main thread and sampling from snapshots
+        if (oldSettings.isAsyncSampling() != newSettings.isAsyncSampling()) {
+            if (lightSampler != null) {
+                lightSampler.stop();
+                lightSampler = null;
+            }
+            if (newSettings.isAsyncSampling()) {
+                startLightSampler();
+            }
+        }
+
+        // Restart the logging of the statistics with the new interval
+        if (oldSettings.getStatsLogIntervalMinutes() != newSettings.getStatsLogIntervalMinutes()) {
+            if (statsLogTask != null) {
+                statsLogTask.cancel();
+                statsLogTask = null;
+            }
+            if (newSettings.getStatsLogIntervalMinutes() > 0) {
+                startStatsLogTask();
+            }
+        }
+
+        // The overlay, the index, the audit and the preference store keep their settings until the next restart
+        List<String> restartRequired = new ArrayList<>();
+        if (oldSettings.getOverlayRadius() != newSettings.getOverlayRadius()) {
+            restartRequired.add("overlay-radius");
+        }
+        if (oldSettings.getOverlayRescanIntervalTicks() != newSettings.getOverlayRescanIntervalTicks()) {
+            restartRequired.add("overlay-rescan-interval-ticks");
+        }
+        if (oldSettings.getOverlayMaxParticlesPerTick() != newSettings.getOverlayMaxParticlesPerTick()) {
+            restartRequired.add("overlay-max-particles-per-tick");
+        }
+        if (oldSettings.getOverlayMaxParticlesPerPlayer() != newSettings.getOverlayMaxParticlesPerPlayer()) {
+            restartRequired.add("overlay-max-particles-per-player");
+        }
+        if (oldSettings.getOverlayMaxSnapshotsPerTick() != newSettings.getOverlayMaxSnapshotsPerTick()) {
+            restartRequired.add("overlay-max-snapshots-per-tick");
+        }
+        if (oldSettings.getIndexMaxSections() != newSettings.getIndexMaxSections()) {
+            restartRequired.add("index-max-sections");
+        }
+        if (oldSettings.getPreferencesFlushIntervalSeconds() != newSettings.getPreferencesFlushIntervalSeconds()) {
+            restartRequired.add("preferences-flush-interval-seconds");
+        }
+        if (oldSettings.getAuditChunksPerTick() != newSettings.getAuditChunksPerTick()) {
+            restartRequired.add("audit-chunks-per-tick");
+        }
+        if (oldSettings.getAuditTickBudgetNanos() != newSettings.getAuditTickBudgetNanos()) {
+            restartRequired.add("audit-tick-budget-millis");
+        }
+        if (oldSettings.getAuditThreads() != newSettings.getAuditThreads()) {
+            restartRequired.add("audit-threads");
+        }
+        return restartRequired;
+    }
+
+    private void logProblems(Settings settings) {
+        for (String problem : settings.getProblems()) {
+            getLogger().warning("Invalid value in config.yml, " + problem);
+        }
+    }
+
+    private void startDisplayScheduler() {
+        displayScheduler = new DisplayScheduler(this, settings.getUpdateIntervalTicks());
+        for (PlayerSession session : sessions.values()) {
+            if (session.isDisplayEnabled()) {
+                displayScheduler.add(session.getPlayerUUID());
+            }
+        }
+        displayScheduler.start();
+    }
+
+    private void startStatsLogTask() {
+        long intervalTicks = settings.getStatsLogIntervalMinutes() * 60L * 20L;
+        statsLogTask = taskScheduler.runAsyncTimer(() -> {
+            for (String line : describeStats(languageManager.getDefault())) {
+                getLogger().info(ChatColor.stripColor(line));
+            }
+        }, intervalTicks, intervalTicks);
+    }
+
+    private void startLightSampler() {
+        lightSampler = new LightSampler(this, snapshotCache, spawnIndex);
+        lightSampler.start();
     }
-}
\ No newline at end of file
+}
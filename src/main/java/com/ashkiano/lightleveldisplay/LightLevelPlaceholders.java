@@ -0,0 +1,104 @@
+package com.ashkiano.lightleveldisplay;
+
+import me.clip.placeholderapi.expansion.PlaceholderExpansion;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.Locale;
+
+/**
+ * Provides the light level of a player to other plugins through PlaceholderAPI, for example to show it in a
+ * scoreboard or the tab list: %lightlevel_light%, %lightlevel_sky%, %lightlevel_block% and %lightlevel_spawnable%.
+ * <p>
+ * Scoreboard plugins ask for placeholders many times per second, so the values come from the last sample of
+ * the player instead of from the world. Only once the sample is older than the configured age is the light
+ * level measured again, right away on the thread that owns the player, or scheduled there from other threads
+ * while the old sample is still returned.
+ * <p>
+ * This class is only loaded when PlaceholderAPI is installed.
+ */
+public class LightLevelPlaceholders extends PlaceholderExpansion {
+
+    // A scheduled sample gets at least a tick to run before it is scheduled again
+    private static final long MIN_SCHEDULE_TIMEOUT_NANOS = 50_000_000L;
+
+    private final LightLevelDisplay plugin;
+
+    public LightLevelPlaceholders(LightLevelDisplay plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "lightlevel";
+    }
+
+    @Override
+    public String getAuthor() {
+        return String.join(", ", plugin.getDescription().getAuthors());
+    }
+
+    @Override
+    public String getVersion() {
+        return plugin.getDescription().getVersion();
+    }
+
+    @Override
+    public boolean persist() {
+        // Keep the placeholders when PlaceholderAPI reloads its expansions, the plugin unregisters them itself
+        return true;
+    }
+
+    @Override
+    public String onRequest(OfflinePlayer offlinePlayer, String params) {
+        // Unknown placeholders are left as they are, without measuring anything
+        String placeholder = params.toLowerCase(Locale.ROOT);
+        switch (placeholder) {
+            case "light":
+            case "sky":
+            case "block":
+            case "spawnable":
+                break;
+            default:
+                return null;
+        }
+
+        Player player = offlinePlayer != null ? offlinePlayer.getPlayer() : null;
+        PlayerSession session = player != null ? plugin.getSession(player.getUniqueId()) : null;
+        if (session == null) {
+            return "";
+        }
+
+        long maxAgeNanos = plugin.getSettings().getPlaceholderMaxAgeNanos();
+        long now = System.nanoTime();
+        if (!session.hasSample() || now - session.getLastSampleNanos() > maxAgeNanos) {
+            refresh(player, session, now, maxAgeNanos);
+        }
+        // Nothing is known yet if the first sample is still scheduled
+        if (!session.hasSample()) {
+            return "";
+        }
+
+        switch (placeholder) {
+            case "light":
+                return Integer.toString(session.getLastLightLevel());
+            case "sky":
+                return Integer.toString(session.getLastSkyLight());
+            case "block":
+                return Integer.toString(session.getLastBlockLight());
+            default:
+                return Boolean.toString(session.getLastCanSpawn());
+        }
+    }
+
+    private void refresh(Player player, PlayerSession session, long nowNanos, long maxAgeNanos) {
+        TaskScheduler taskScheduler = plugin.getTaskScheduler();
+        if (taskScheduler.isOwnedByCurrentThread(player)) {
+            plugin.sampleLightLevel(player);
+        } else if (session.tryScheduleSample(nowNanos, Math.max(MIN_SCHEDULE_TIMEOUT_NANOS, maxAgeNanos))) {
+            // On a region-threaded server the task is dropped if the player changes worlds before it runs, the
+            // mark then expires and the next request schedules the sample again
+            taskScheduler.runForPlayer(player, () -> plugin.sampleLightLevel(player));
+        }
+    }
+}
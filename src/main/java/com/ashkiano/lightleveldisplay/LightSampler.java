@@ -0,0 +1,218 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads light levels from chunk snapshots on an async thread instead of from live blocks on the main thread.
+ * <p>
+ * Requests are collected during the tick and flushed once per tick: the thread that owns the player only fetches
+ * the snapshot from the {@link SnapshotCache} when the request is made, and the light levels and spawn verdicts
+ * are computed asynchronously. The results are handed back to the threads that own the players, which only send
+ * the messages.
+ */
+public class LightSampler implements Runnable {
+
+    // World#getMinHeight() only exists since 1.17
+    private static final boolean HAS_MIN_HEIGHT = hasMinHeight();
+
+    private final LightLevelDisplay plugin;
+    private final SnapshotCache snapshotCache;
+    private final SpawnIndex spawnIndex;
+    // Requests collected since the last flush, the latest request of a player replaces older ones
+    private final Map<UUID, Request> pendingRequests = new ConcurrentHashMap<>();
+    private TaskScheduler.Task task = null;
+
+    public LightSampler(LightLevelDisplay plugin, SnapshotCache snapshotCache, SpawnIndex spawnIndex) {
+        this.plugin = plugin;
+        this.snapshotCache = snapshotCache;
+        this.spawnIndex = spawnIndex;
+    }
+
+    /** Starts flushing requests every tick. */
+    public void start() {
+        if (task == null) {
+            task = plugin.getTaskScheduler().runGlobalTimer(this, 1L, 1L);
+        }
+    }
+
+    /** Stops the sampler and drops all pending requests. */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        pendingRequests.clear();
+    }
+
+    /**
+     * Requests the light level at the given location to be sampled and displayed to the player.
+     * Must be called from the thread that owns the player.
+     *
+     * @param player   The player to display the light level to.
+     * @param location The location to measure the light level at.
+     */
+    public void request(Player player, Location location) {
+        World world = location.getWorld();
+        Request request = new Request(player.getUniqueId(), world, location.getBlockX(), location.getBlockY(),
+                location.getBlockZ());
+
+        // Attach a fresh snapshot and the current sky darkness, this is the only work on the owning thread
+        request.snapshot = snapshotCache.get(world, request.x >> 4, request.z >> 4);
+        request.minHeight = minHeight(world);
+        request.maxHeight = world.getMaxHeight();
+        request.skyDarkness = skyDarkness(world);
+        pendingRequests.put(player.getUniqueId(), request);
+    }
+
+    @Override
+    public void run() {
+        if (pendingRequests.isEmpty()) {
+            return;
+        }
+
+        // Take the requests, but keep those that were replaced by a newer request in the meantime for the next flush
+        List<Request> batch = new ArrayList<>(pendingRequests.size());
+        for (Map.Entry<UUID, Request> entry : pendingRequests.entrySet()) {
+            if (pendingRequests.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry.getValue());
+            }
+        }
+
+        // Read the light levels off the main thread and come back only to send the results
+        plugin.getTaskScheduler().runAsync(() -> {
+            for (Request request : batch) {
+                // The sessions can be read from here, so players who disabled the display are not sampled at all
+                if (!plugin.isDisplayEnabled(request.playerUUID)) {
+                    continue;
+                }
+                request.sampled = true;
+                request.lightLevel = lightLevel(request);
+                readLight(request);
+                request.canSpawn = spawnIndex.isSpawnable(request.world, request.snapshot, request.x, request.y,
+                        request.z, request.skyDarkness, request.minHeight, request.maxHeight);
+            }
+            plugin.getTaskScheduler().runGlobal(() -> {
+                for (Request request : batch) {
+                    // Skip players who left or disabled the display in the meantime
+                    Player player = plugin.getServer().getPlayer(request.playerUUID);
+                    if (request.sampled && player != null && plugin.isDisplayEnabled(request.playerUUID)) {
+                        plugin.getTaskScheduler().execute(player, () ->
+                                plugin.displayLightLevel(player, request.lightLevel, request.skyLight,
+                                        request.blockLight, request.canSpawn));
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Computes the light level of a block the same way Block#getLightLevel() does: the brighter of the
+     * block light and the sky light reduced by the current sky darkness.
+     */
+    private static int lightLevel(Request request) {
+        // Above the world there is only open sky, below it there is no light at all
+        if (request.y >= request.maxHeight) {
+            return Math.max(0, 15 - request.skyDarkness);
+        }
+        if (request.y < request.minHeight) {
+            return 0;
+        }
+        return lightLevel(request.snapshot, request.x & 15, request.y, request.z & 15, request.skyDarkness);
+    }
+
+    /** Reads the sky light and block light of the requested block, which are kept for the placeholders. */
+    private static void readLight(Request request) {
+        if (request.y >= request.maxHeight) {
+            request.skyLight = 15;
+        } else if (request.y >= request.minHeight) {
+            request.skyLight = request.snapshot.getBlockSkyLight(request.x & 15, request.y, request.z & 15);
+            request.blockLight = request.snapshot.getBlockEmittedLight(request.x & 15, request.y, request.z & 15);
+        }
+    }
+
+    /**
+     * Reads the light level of a block inside the world height from a snapshot.
+     *
+     * @param snapshot    The snapshot of the chunk containing the block.
+     * @param x           The X coordinate of the block within the chunk (0-15).
+     * @param y           The Y coordinate of the block.
+     * @param z           The Z coordinate of the block within the chunk (0-15).
+     * @param skyDarkness The current sky darkness of the world, see {@link #skyDarkness(World)}.
+     * @return The light level between 0 and 15.
+     */
+    public static int lightLevel(ChunkSnapshot snapshot, int x, int y, int z, int skyDarkness) {
+        int blockLight = snapshot.getBlockEmittedLight(x, y, z);
+        int skyLight = snapshot.getBlockSkyLight(x, y, z) - skyDarkness;
+        return Math.max(blockLight, Math.max(0, skyLight));
+    }
+
+    /**
+     * Computes how much the sky light of the world is currently reduced by the time of day and weather,
+     * using the same formula as the server.
+     */
+    public static int skyDarkness(World world) {
+        double dayProgress = world.getTime() / 24000.0D - 0.25D;
+        dayProgress -= Math.floor(dayProgress);
+        float timeOfDay = (float) (dayProgress * 2.0D + (0.5D - Math.cos(dayProgress * Math.PI) / 2.0D)) / 3.0F;
+
+        double rain = world.hasStorm() ? 1.0D - 5.0D / 16.0D : 1.0D;
+        double thunder = world.isThundering() ? 1.0D - 5.0D / 16.0D : 1.0D;
+        double daylight = 0.5D + 2.0D * Math.max(-0.25D, Math.min(0.25D, Math.cos(timeOfDay * Math.PI * 2.0D)));
+        return (int) ((1.0D - daylight * rain * thunder) * 11.0D);
+    }
+
+    /**
+     * Returns the minimum height of a world, also on servers before 1.17, where every world starts at 0.
+     *
+     * @param world The world.
+     * @return The lowest Y coordinate of the world.
+     */
+    public static int minHeight(World world) {
+        return HAS_MIN_HEIGHT ? world.getMinHeight() : 0;
+    }
+
+    private static boolean hasMinHeight() {
+        try {
+            World.class.getMethod("getMinHeight");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static class Request {
+        private final UUID playerUUID;
+        private final World world;
+        private final int x;
+        private final int y;
+        private final int z;
+        // Filled on the thread that owns the player before the request is handed to the async thread
+        private ChunkSnapshot snapshot;
+        private int minHeight;
+        private int maxHeight;
+        private int skyDarkness;
+        // Filled on the async thread
+        private boolean sampled;
+        private int lightLevel;
+        private int skyLight;
+        private int blockLight;
+        private boolean canSpawn;
+
+        private Request(UUID playerUUID, World world, int x, int y, int z) {
+            this.playerUUID = playerUUID;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
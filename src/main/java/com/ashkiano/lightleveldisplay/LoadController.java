@@ -0,0 +1,196 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.entity.Player;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scales the work of the plugin down while the server is lagging, and limits how often every single player's
+ * display is updated.
+ * <p>
+ * The time between two ticks is measured every tick and averaged. While the average tick is slower than the
+ * configured minimum TPS allows, the load scale shrinks by a few percent per tick, and once the server has
+ * recovered it grows back slowly, so the plugin backs off quickly and returns carefully. The display rate of
+ * every player, the repeating display task, the overlay and the scans all follow the load scale.
+ * <p>
+ * Every player has a token bucket for display updates, so vehicles, elytra flights and teleports cannot cause
+ * more updates than the configured rate. Movement that is dropped by the bucket is remembered, and the display
+ * of the player is updated once the bucket has a token again, so the display never stays outdated.
+ * The ticks are measured on the global thread, all other methods can be called from any thread.
+ */
+public class LoadController implements Runnable {
+
+    // Nanoseconds per tick at 20 TPS
+    private static final long NANOS_PER_TICK = 50_000_000L;
+    // Weight of the latest tick in the average tick time
+    private static final double AVERAGE_WEIGHT = 0.1D;
+    // Factor the load scale is multiplied with per slow tick, and the amount it grows per healthy tick
+    private static final double DECREASE_FACTOR = 0.95D;
+    private static final double INCREASE_STEP = 0.01D;
+
+    private final LightLevelDisplay plugin;
+    // Players whose last movement was dropped by their token bucket
+    private final Set<UUID> deferred = ConcurrentHashMap.newKeySet();
+    private volatile boolean adaptive = true;
+    private volatile long slowTickNanos = NANOS_PER_TICK;
+    private volatile double minScale = 0.1D;
+    private volatile double playerRate = 10.0D;
+    private volatile double playerBurst = 5.0D;
+    private volatile double scale = 1.0D;
+    private volatile double averageTickNanos = NANOS_PER_TICK;
+    private long lastTickNanos = 0L;
+    private TaskScheduler.Task task = null;
+
+    public LoadController(LightLevelDisplay plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Applies the throttling settings, also while the controller is running.
+     *
+     * @param settings The settings to apply.
+     */
+    public void configure(Settings settings) {
+        adaptive = settings.isAdaptiveThrottling();
+        // The settings are validated when they are loaded
+        slowTickNanos = (long) (1_000_000_000.0D / settings.getThrottleMinTps());
+        minScale = settings.getThrottleMinScale();
+        playerRate = settings.getPlayerUpdatesPerSecond();
+        playerBurst = settings.getPlayerUpdateBurst();
+        if (!adaptive) {
+            scale = 1.0D;
+        }
+    }
+
+    /** Starts measuring the ticks. */
+    public void start() {
+        if (task == null) {
+            lastTickNanos = 0L;
+            task = plugin.getTaskScheduler().runGlobalTimer(this, 1L, 1L);
+        }
+    }
+
+    /** Stops measuring the ticks and forgets all deferred updates. */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        deferred.clear();
+        scale = 1.0D;
+    }
+
+    /**
+     * Returns how much of its normal work the plugin should currently do. Safe to call from any thread.
+     *
+     * @return The load scale between the configured minimum and 1.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Checks whether the display of a player may be updated now, and takes a token from the player's bucket if so.
+     * If not, the update is made later, once the bucket has a token again.
+     *
+     * @param session The session of the player.
+     * @return True if the display may be updated now.
+     */
+    public boolean tryAcquire(PlayerSession session) {
+        if (session.getUpdateBucket().tryAcquire(System.nanoTime(), playerRate * scale, playerBurst)) {
+            deferred.remove(session.getPlayerUUID());
+            return true;
+        }
+        deferred.add(session.getPlayerUUID());
+        return false;
+    }
+
+    /**
+     * Forgets a deferred update, for example when the player quits or disables the display.
+     *
+     * @param playerUUID The UUID of the player.
+     */
+    public void remove(UUID playerUUID) {
+        deferred.remove(playerUUID);
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        if (lastTickNanos != 0L) {
+            averageTickNanos += (now - lastTickNanos - averageTickNanos) * AVERAGE_WEIGHT;
+        }
+        lastTickNanos = now;
+
+        if (adaptive) {
+            // Back off quickly while the server is slow, and recover slowly once it is halfway back to 20 TPS
+            if (averageTickNanos > slowTickNanos) {
+                scale = Math.max(minScale, scale * DECREASE_FACTOR);
+            } else if (averageTickNanos < (slowTickNanos + NANOS_PER_TICK) / 2.0D) {
+                scale = Math.min(1.0D, scale + INCREASE_STEP);
+            }
+        }
+
+        // Make the updates that were dropped, as far as the buckets allow
+        Iterator<UUID> iterator = deferred.iterator();
+        while (iterator.hasNext()) {
+            UUID playerUUID = iterator.next();
+            PlayerSession session = plugin.getSession(playerUUID);
+            Player player = plugin.getServer().getPlayer(playerUUID);
+            if (session == null || player == null || !session.isDisplayEnabled()) {
+                iterator.remove();
+                continue;
+            }
+            if (session.getUpdateBucket().tryAcquire(now, playerRate * scale, playerBurst)) {
+                iterator.remove();
+                plugin.getTaskScheduler().execute(player, () -> plugin.showLightLevel(player, player.getLocation()));
+            }
+        }
+    }
+
+    /**
+     * Returns the average time between two ticks, for the '/lightlevel rates' command.
+     *
+     * @return The average tick time in milliseconds.
+     */
+    public double getAverageTickMillis() {
+        return averageTickNanos / 1_000_000.0D;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns the TPS below which the load scale is lowered.
+     *
+     * @return The configured minimum TPS.
+     */
+    public double getSlowTickTps() {
+        return 1_000_000_000.0D / slowTickNanos;
+    }
+
+    public double getMinScale() {
+        return minScale;
+    }
+
+    public double getPlayerRate() {
+        return playerRate;
+    }
+
+    public double getPlayerBurst() {
+        return playerBurst;
+    }
+
+    /**
+     * Returns the number of players whose display update was deferred and is still waiting for a token.
+     *
+     * @return The number of players.
+     */
+    public int getDeferredCount() {
+        return deferred.size();
+    }
+}
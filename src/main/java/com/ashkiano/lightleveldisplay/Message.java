@@ -0,0 +1,98 @@
+package com.ashkiano.lightleveldisplay;
+
+/**
+ * Every message of the language files, with its key and the English text used when the key is missing.
+ */
+public enum Message {
+
+    NOT_A_PLAYER("not-a-player-message", "&cThis command can only be used by players."),
+    NO_PERMISSION("no-permission-message", "&cYou don't have permission to use this command."),
+    LIGHT_LEVEL_ENABLED("light-level-enabled", "&aLight level display has been enabled."),
+    LIGHT_LEVEL_DISABLED("light-level-disabled", "&cLight level display has been disabled."),
+    MONSTER_CAN_SPAWN("monster-can-spawn-message", "&cMonsters can spawn at this light level of %s."),
+    MONSTER_CANNOT_SPAWN("monster-cannot-spawn-message", "&aMonsters cannot spawn at this light level of %s."),
+    OVERLAY_ENABLED("overlay-enabled", "&aSpawnable block overlay has been enabled."),
+    OVERLAY_DISABLED("overlay-disabled", "&cSpawnable block overlay has been disabled."),
+    MODE_CHANGED("mode-changed", "&aLight level display mode has been set to %s."),
+    MODE_UNKNOWN("mode-unknown", "&cUnknown display mode. Available modes: %s."),
+    MODE_UNAVAILABLE("mode-unavailable", "&cThe %s display mode is not available on this server."),
+    SIDEBAR_TITLE("sidebar-title", "&eLight level"),
+    AUDIT_USAGE("audit-usage", "&6Usage: /lightlevel audit <radius in chunks> [generated] | world [world] | cancel"),
+    EXPORT_USAGE("export-usage", "&6Usage: /lightlevel export <radius in chunks> [csv] [generated] | cancel"),
+    SCANS_UNAVAILABLE("scans-unavailable", "&6Audits and exports are not available on region-threaded servers."),
+    SCAN_NOT_RUNNING("scan-not-running", "&6No audit or export is running."),
+    SCAN_ALREADY_RUNNING("scan-already-running", "&6An audit or export is already running, cancel it with '%s'."),
+    UNKNOWN_WORLD("unknown-world", "&6Unknown world: %s"),
+    RADIUS_OUT_OF_RANGE("radius-out-of-range", "&6The radius must be between 0 and %s chunks."),
+    AUDIT_NAME("audit-name", "Audit"),
+    EXPORT_NAME("export-name", "Export"),
+    SCAN_START_FAILED("scan-start-failed", "&c%s could not be started: %s"),
+    SCAN_STARTED("scan-started", "&6%s of %s chunks of %s started with %s threads..."),
+    SCAN_RESUMED("scan-resumed", "&6%s of %s chunks of %s resumed after %s chunks with %s threads..."),
+    SCAN_CANCELLED("scan-cancelled", "&6%s cancelled after %s chunks."),
+    SCAN_FAILED("scan-failed", "&c%s failed: %s"),
+    AUDIT_PROGRESS("audit-progress", "&6Audit: %s / %s chunks (%s%%), %s spawnable blocks so far."),
+    AUDIT_COMPLETE("audit-complete", "&6Audited %s chunks of %s in %s seconds."),
+    AUDIT_SKIPPED("audit-skipped", "&6Skipped %s chunks that are not loaded."),
+    AUDIT_SPAWNABLE("audit-spawnable", "&6Spawnable blocks at night: %s in %s chunks."),
+    AUDIT_TOP_CHUNK("audit-top-chunk", "&6  %s blocks in the chunk at x %s, z %s"),
+    AUDIT_WRITTEN("audit-written", "&6The counts of all chunks have been written to audits/%s"),
+    EXPORT_PROGRESS("export-progress", "&6Export: %s / %s chunks (%s%%), %s KiB written."),
+    EXPORT_COMPLETE("export-complete", "&6Exported %s chunks to exports/%s (%s KiB) in %s seconds."),
+    EXPORT_CHECKPOINT_NOT_DELETED("export-checkpoint-not-deleted",
+            "&cFailed to delete exports/%s, delete it to export the same area again."),
+    INDEX_SECTIONS("index-sections", "&6Sections: %s / %s (%s with spawnable blocks)"),
+    INDEX_SPAWNABLE("index-spawnable", "&6Spawnable blocks: %s"),
+    INDEX_MEMORY("index-memory", "&6Estimated memory: %s KiB"),
+    INDEX_HIT_RATE("index-hit-rate", "&6Hit rate: %s%% of %s lookups, %s evictions"),
+    INDEX_SPAWN_RULES("index-spawn-rules", "&6Spawn rules of %s: light up to %s, block light up to %s, %s blocks to spawn on"),
+    STATS_HEADER("stats-header", "&6Statistics of the last %s seconds:"),
+    STATS_MOVE_EVENTS("stats-move-events",
+            "&6Move events: %s (%s/s), rejected: %s display disabled, %s same block, %s rate limit"),
+    STATS_SAMPLES("stats-samples", "&6Light levels measured: %s (%s/s), %s updates after nearby light changes"),
+    STATS_MESSAGES("stats-messages", "&6Messages sent: %s, suppressed as unchanged: %s (%s%%)"),
+    STATS_MOVE_LATENCY("stats-move-latency", "&6Move handling: %s samples, mean %s us, p50 %s us, p99 %s us, p99.9 %s us, max %s us"),
+    STATS_SEND_LATENCY("stats-send-latency",
+            "&6Message sending: %s samples, mean %s us, p50 %s us, p99 %s us, p99.9 %s us, max %s us"),
+    STATS_RESET("stats-reset", "&6The statistics have been reset."),
+    RATES_TICK("rates-tick", "&6Average tick: %s ms (%s TPS)"),
+    RATES_SCALE_ADAPTIVE("rates-scale-adaptive", "&6Load scale: %s%%, lowered below %s TPS down to %s%%"),
+    RATES_SCALE_FIXED("rates-scale-fixed", "&6Load scale: %s%%, adaptive throttling disabled"),
+    RATES_PLAYER_UPDATES("rates-player-updates", "&6Display updates per player: %s/s of %s/s, bursts of %s"),
+    RATES_WAITING("rates-waiting", "&6Players waiting for an update: %s"),
+    RATES_DISPLAY_TASK("rates-display-task", "&6Repeating display task: every %s ticks instead of %s"),
+    RATES_OVERLAY("rates-overlay", "&6Overlay: up to %s of %s particles per tick"),
+    RATES_SCANS("rates-scans", "&6Audits and exports: up to %s of %s chunks per tick"),
+    RELOAD_IN_PROGRESS("reload-in-progress", "&6A reload is already in progress."),
+    RELOADING("reloading", "&6Reloading the configuration and language files..."),
+    RELOAD_FAILED("reload-failed", "&cFailed to reload the configuration, the old one is kept: %s"),
+    RELOADED("reloaded", "&6Reloaded the configuration and language files in %s ms."),
+    RELOAD_RESTART_REQUIRED("reload-restart-required", "&6These settings take effect after a restart: %s"),
+    RELOAD_INVALID_VALUE("reload-invalid-value", "&cInvalid value, %s");
+
+    private final String key;
+    private final String defaultTemplate;
+
+    Message(String key, String defaultTemplate) {
+        this.key = key;
+        this.defaultTemplate = defaultTemplate;
+    }
+
+    /**
+     * Returns the key of the message in the language files.
+     *
+     * @return The key of the message.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the text used when the language file does not contain the message.
+     *
+     * @return The untranslated default template.
+     */
+    public String getDefaultTemplate() {
+        return defaultTemplate;
+    }
+}
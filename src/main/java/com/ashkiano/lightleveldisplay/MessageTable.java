@@ -0,0 +1,87 @@
+package com.ashkiano.lightleveldisplay;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+
+/**
+ * Pre-rendered light level messages for a single language.
+ * <p>
+ * There are only 16 light levels and two spawn verdicts, so every message the display can
+ * ever show is rendered once when the language is loaded. The movement hot path then only
+ * indexes into these arrays and never touches the YAML tree, {@link String#format} or the
+ * color code translator.
+ */
+public final class MessageTable {
+
+    // Light levels range from 0 to 15 inclusive
+    public static final int LIGHT_LEVELS = 16;
+
+    // Rendered components for the action bar, indexed by light level
+    private final BaseComponent[][] canSpawnComponents = new BaseComponent[LIGHT_LEVELS][];
+    private final BaseComponent[][] cannotSpawnComponents = new BaseComponent[LIGHT_LEVELS][];
+
+    // Translated strings for the chat, indexed by light level
+    private final String[] canSpawnMessages = new String[LIGHT_LEVELS];
+    private final String[] cannotSpawnMessages = new String[LIGHT_LEVELS];
+
+    // Translated title of the sidebar
+    private final String sidebarTitle;
+
+    private MessageTable(String canSpawnTemplate, String cannotSpawnTemplate, String sidebarTitleTemplate) {
+        sidebarTitle = LightLevelDisplay.translateColorCodes(sidebarTitleTemplate);
+        for (int lightLevel = 0; lightLevel < LIGHT_LEVELS; lightLevel++) {
+            // Replace the placeholder with the light level first and translate the colors afterwards,
+            // exactly like the display used to do on every move
+            canSpawnMessages[lightLevel] = LightLevelDisplay.translateColorCodes(String.format(canSpawnTemplate, lightLevel));
+            cannotSpawnMessages[lightLevel] = LightLevelDisplay.translateColorCodes(String.format(cannotSpawnTemplate, lightLevel));
+
+            // Parse the legacy text into components once, so the action bar can reuse them
+            canSpawnComponents[lightLevel] = TextComponent.fromLegacyText(canSpawnMessages[lightLevel]);
+            cannotSpawnComponents[lightLevel] = TextComponent.fromLegacyText(cannotSpawnMessages[lightLevel]);
+        }
+    }
+
+    /**
+     * Renders the message table from the message templates of a language.
+     *
+     * @param canSpawnTemplate     The template of the message shown where monsters can spawn.
+     * @param cannotSpawnTemplate  The template of the message shown where monsters cannot spawn.
+     * @param sidebarTitleTemplate The template of the sidebar title.
+     * @return The rendered message table.
+     */
+    public static MessageTable compile(String canSpawnTemplate, String cannotSpawnTemplate, String sidebarTitleTemplate) {
+        return new MessageTable(canSpawnTemplate, cannotSpawnTemplate, sidebarTitleTemplate);
+    }
+
+    /**
+     * Returns the components to send to the action bar. The returned array is shared and must not be modified.
+     *
+     * @param lightLevel The light level between 0 and 15.
+     * @param canSpawn   Whether monsters can spawn at this light level.
+     * @return The pre-rendered components.
+     */
+    public BaseComponent[] actionBar(int lightLevel, boolean canSpawn) {
+        return canSpawn ? canSpawnComponents[lightLevel] : cannotSpawnComponents[lightLevel];
+    }
+
+    /**
+     * Returns the translated message to send to the chat. The same message is shown in the boss bar,
+     * title and sidebar.
+     *
+     * @param lightLevel The light level between 0 and 15.
+     * @param canSpawn   Whether monsters can spawn at this light level.
+     * @return The pre-translated message.
+     */
+    public String chat(int lightLevel, boolean canSpawn) {
+        return canSpawn ? canSpawnMessages[lightLevel] : cannotSpawnMessages[lightLevel];
+    }
+
+    /**
+     * Returns the translated title of the sidebar.
+     *
+     * @return The pre-translated sidebar title.
+     */
+    public String sidebarTitle() {
+        return sidebarTitle;
+    }
+}
@@ -17,21 +17,24 @@ package com.ashkiano.lightleveldisplay;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -39,9 +42,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
-import javax.net.ssl.HttpsURLConnection;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
@@ -54,15 +55,23 @@ public class Metrics {
 
     private final MetricsBase metricsBase;
 
+    // Server#getOnlinePlayers(), looked up once instead of on every submission
+    private final Method onlinePlayersMethod;
+
+    // The number of online players, taken on the global thread right before each submission
+    private volatile int playerAmount = 0;
+
     /**
      * Creates a new Metrics instance.
      *
      * @param plugin Your plugin instance.
      * @param serviceId The id of the service. It can be found at <a
      *     href="https://bstats.org/what-is-my-plugin-id">What is my plugin id?</a>
+     * @param scheduler The scheduler to take the player count on the global thread with.
      */
-    public Metrics(JavaPlugin plugin, int serviceId) {
+    public Metrics(JavaPlugin plugin, int serviceId, TaskScheduler scheduler) {
         this.plugin = plugin;
+        this.onlinePlayersMethod = findOnlinePlayersMethod();
         // Get the config file
         File bStatsFolder = new File(plugin.getDataFolder().getParentFile(), "bStats");
         File configFile = new File(bStatsFolder, "config.yml");
@@ -102,7 +111,14 @@ public class Metrics {
                         enabled,
                         this::appendPlatformData,
                         this::appendServiceData,
-                        submitDataTask -> Bukkit.getScheduler().runTask(plugin, submitDataTask),
+                        submitDataTask ->
+                                scheduler.runGlobal(
+                                        () -> {
+                                            // Only the player count is taken on the global thread, the
+                                            // data is built and sent by the metrics thread
+                                            playerAmount = getPlayerAmount();
+                                            submitDataTask.run();
+                                        }),
                         plugin::isEnabled,
                         (message, error) -> this.plugin.getLogger().log(Level.WARNING, message, error),
                         (message) -> this.plugin.getLogger().log(Level.INFO, message),
@@ -117,7 +133,8 @@ public class Metrics {
     }
 
     /**
-     * Adds a custom chart.
+     * Adds a custom chart. The data of the chart is requested from the metrics thread, not from the
+     * main thread.
      *
      * @param chart The chart to add.
      */
@@ -126,7 +143,7 @@ public class Metrics {
     }
 
     private void appendPlatformData(JsonObjectBuilder builder) {
-        builder.appendField("playerAmount", getPlayerAmount());
+        builder.appendField("playerAmount", playerAmount);
         builder.appendField("onlineMode", Bukkit.getOnlineMode() ? 1 : 0);
         builder.appendField("bukkitVersion", Bukkit.getVersion());
         builder.appendField("bukkitName", Bukkit.getName());
@@ -141,12 +158,22 @@ public class Metrics {
         builder.appendField("pluginVersion", plugin.getDescription().getVersion());
     }
 
-    private int getPlayerAmount() {
+    private static Method findOnlinePlayersMethod() {
         try {
             // Around MC 1.8 the return type was changed from an array to a collection,
             // This fixes java.lang.NoSuchMethodError:
             // org.bukkit.Bukkit.getOnlinePlayers()Ljava/util/Collection;
-            Method onlinePlayersMethod = Class.forName("org.bukkit.Server").getMethod("getOnlinePlayers");
+            return Class.forName("org.bukkit.Server").getMethod("getOnlinePlayers");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private int getPlayerAmount() {
+        try {
+            if (onlinePlayersMethod == null) {
+                return Bukkit.getOnlinePlayers().size();
+            }
             return onlinePlayersMethod.getReturnType().equals(Collection.class)
                     ? ((Collection<?>) onlinePlayersMethod.invoke(Bukkit.getServer())).size()
                     : ((Player[]) onlinePlayersMethod.invoke(Bukkit.getServer())).length;
@@ -163,8 +190,18 @@ public class Metrics {
 
         private static final String REPORT_URL = "https://bStats.org/api/v2/data/%s";
 
+        // Failed submissions are retried after 1, 2 and 4 minutes, well before the next regular submission
+        private static final int MAX_RETRIES = 3;
+
+        private static final long INITIAL_RETRY_DELAY = 1000 * 60;
+
+        private static final long MAX_RETRY_DELAY = 1000 * 60 * 8;
+
         private final ScheduledExecutorService scheduler;
 
+        // The address the data is sent to, with a %s for the platform
+        private final String reportUrl;
+
         private final String platform;
 
         private final String serverUuid;
@@ -189,10 +226,13 @@ public class Metrics {
 
         private final boolean logResponseStatusText;
 
-        private final Set<CustomChart> customCharts = new HashSet<>();
+        private final Set<CustomChart> customCharts = ConcurrentHashMap.newKeySet();
 
         private final boolean enabled;
 
+        // Holds the compressed data of a submission, reused so every submission does not allocate a new buffer
+        private final ByteArrayOutputStream compressedData = new ByteArrayOutputStream(4096);
+
         /**
          * Creates a new MetricsBase class instance.
          *
@@ -205,8 +245,9 @@ public class Metrics {
          * @param appendServiceDataConsumer A consumer that receives a {@code JsonObjectBuilder} and
          *     appends all service-specific data.
          * @param submitTaskConsumer A consumer that takes a runnable with the submit task. This can be
-         *     used to delegate the data collection to a another thread to prevent errors caused by
-         *     concurrency. Can be {@code null}.
+         *     used to take a snapshot of data on another thread before the runnable is run. The runnable
+         *     hands the submission back to the metrics thread, where the data is built and sent. Can be
+         *     {@code null}.
          * @param checkServiceEnabledSupplier A supplier to check if the service is still enabled.
          * @param errorLogger A consumer that accepts log message and an error.
          * @param infoLogger A consumer that accepts info log messages.
@@ -228,14 +269,49 @@ public class Metrics {
                 boolean logErrors,
                 boolean logSentData,
                 boolean logResponseStatusText) {
-            ScheduledThreadPoolExecutor scheduler =
-                    new ScheduledThreadPoolExecutor(1, task -> new Thread(task, "bStats-Metrics"));
-            // We want delayed tasks (non-periodic) that will execute in the future to be
-            // cancelled when the scheduler is shutdown.
-            // Otherwise, we risk preventing the server from shutting down even when
-            // MetricsBase#shutdown() is called
-            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            this(
+                    createScheduler(),
+                    REPORT_URL,
+                    platform,
+                    serverUuid,
+                    serviceId,
+                    enabled,
+                    appendPlatformDataConsumer,
+                    appendServiceDataConsumer,
+                    submitTaskConsumer,
+                    checkServiceEnabledSupplier,
+                    errorLogger,
+                    infoLogger,
+                    logErrors,
+                    logSentData,
+                    logResponseStatusText);
+        }
+
+        /**
+         * Creates a new MetricsBase class instance that runs on the given scheduler and sends the data to
+         * the given address, for tests against a local server.
+         *
+         * @param scheduler The scheduler the submissions and retries run on.
+         * @param reportUrl The address to send the data to, with a %s for the platform.
+         */
+        MetricsBase(
+                ScheduledExecutorService scheduler,
+                String reportUrl,
+                String platform,
+                String serverUuid,
+                int serviceId,
+                boolean enabled,
+                Consumer<JsonObjectBuilder> appendPlatformDataConsumer,
+                Consumer<JsonObjectBuilder> appendServiceDataConsumer,
+                Consumer<Runnable> submitTaskConsumer,
+                Supplier<Boolean> checkServiceEnabledSupplier,
+                BiConsumer<String, Throwable> errorLogger,
+                Consumer<String> infoLogger,
+                boolean logErrors,
+                boolean logSentData,
+                boolean logResponseStatusText) {
             this.scheduler = scheduler;
+            this.reportUrl = reportUrl;
             this.platform = platform;
             this.serverUuid = serverUuid;
             this.serviceId = serviceId;
@@ -257,6 +333,24 @@ public class Metrics {
             }
         }
 
+        private static ScheduledExecutorService createScheduler() {
+            ScheduledThreadPoolExecutor scheduler =
+                    new ScheduledThreadPoolExecutor(
+                            1,
+                            task -> {
+                                Thread thread = new Thread(task, "bStats-Metrics");
+                                // Never keep the server from shutting down
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+            // We want delayed tasks (non-periodic) that will execute in the future to be
+            // cancelled when the scheduler is shutdown.
+            // Otherwise, we risk preventing the server from shutting down even when
+            // MetricsBase#shutdown() is called
+            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            return scheduler;
+        }
+
         public void addCustomChart(CustomChart chart) {
             this.customCharts.add(chart);
         }
@@ -274,7 +368,7 @@ public class Metrics {
                             return;
                         }
                         if (submitTaskConsumer != null) {
-                            submitTaskConsumer.accept(this::submitData);
+                            submitTaskConsumer.accept(() -> execute(this::submitData));
                         } else {
                             this.submitData();
                         }
@@ -294,6 +388,22 @@ public class Metrics {
                     submitTask, initialDelay + secondDelay, 1000 * 60 * 30, TimeUnit.MILLISECONDS);
         }
 
+        /**
+         * Runs a task on the metrics thread, unless the metrics have been shut down in the meantime.
+         *
+         * @param task The task to run.
+         */
+        private void execute(Runnable task) {
+            if (scheduler.isShutdown()) {
+                return;
+            }
+            try {
+                scheduler.execute(task);
+            } catch (RejectedExecutionException ignored) {
+                // Shut down between the check and the call
+            }
+        }
+
         private void submitData() {
             final JsonObjectBuilder baseJsonBuilder = new JsonObjectBuilder();
             appendPlatformDataConsumer.accept(baseJsonBuilder);
@@ -310,38 +420,55 @@ public class Metrics {
             baseJsonBuilder.appendField("serverUUID", serverUuid);
             baseJsonBuilder.appendField("metricsVersion", METRICS_VERSION);
             JsonObjectBuilder.JsonObject data = baseJsonBuilder.build();
-            scheduler.execute(
-                    () -> {
-                        try {
-                            // Send the data
-                            sendData(data);
-                        } catch (Exception e) {
-                            // Something went wrong! :(
-                            if (logErrors) {
-                                errorLogger.accept("Could not submit bStats metrics data", e);
-                            }
-                        }
-                    });
+            execute(() -> submitData(data, 0));
+        }
+
+        /**
+         * Sends the data and schedules a retry with an exponentially growing delay if it fails.
+         *
+         * @param data The data to send.
+         * @param attempt The number of failed attempts so far.
+         */
+        private void submitData(JsonObjectBuilder.JsonObject data, int attempt) {
+            try {
+                // Send the data
+                sendData(data);
+            } catch (Exception e) {
+                // Something went wrong! :(
+                if (logErrors) {
+                    errorLogger.accept("Could not submit bStats metrics data", e);
+                }
+                if (attempt < MAX_RETRIES && !scheduler.isShutdown()) {
+                    long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << attempt);
+                    try {
+                        scheduler.schedule(() -> submitData(data, attempt + 1), delay, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException ignored) {
+                        // Shut down in the meantime
+                    }
+                }
+            }
         }
 
         private void sendData(JsonObjectBuilder.JsonObject data) throws Exception {
             if (logSentData) {
                 infoLogger.accept("Sent bStats metrics data: " + data.toString());
             }
-            String url = String.format(REPORT_URL, platform);
-            HttpsURLConnection connection = (HttpsURLConnection) new URL(url).openConnection();
-            // Compress the data to save bandwidth
-            byte[] compressedData = compress(data.toString());
+            String url = String.format(reportUrl, platform);
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            // Compress the data to save bandwidth, straight from the built JSON without copying it first
+            compressedData.reset();
+            compress(data, compressedData);
             connection.setRequestMethod("POST");
             connection.addRequestProperty("Accept", "application/json");
             connection.addRequestProperty("Connection", "close");
             connection.addRequestProperty("Content-Encoding", "gzip");
-            connection.addRequestProperty("Content-Length", String.valueOf(compressedData.length));
+            connection.addRequestProperty("Content-Length", String.valueOf(compressedData.size()));
             connection.setRequestProperty("Content-Type", "application/json");
             connection.setRequestProperty("User-Agent", "Metrics-Service/1");
             connection.setDoOutput(true);
-            try (DataOutputStream outputStream = new DataOutputStream(connection.getOutputStream())) {
-                outputStream.write(compressedData);
+            connection.setFixedLengthStreamingMode(compressedData.size());
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                compressedData.writeTo(outputStream);
             }
             StringBuilder builder = new StringBuilder();
             try (BufferedReader bufferedReader =
@@ -377,20 +504,18 @@ public class Metrics {
         }
 
         /**
-         * Gzips the given string.
+         * Gzips the given JSON as UTF-8. The characters are encoded and compressed in small chunks, so no
+         * string or byte array copy of the whole JSON is created.
          *
-         * @param str The string to gzip.
-         * @return The gzipped string.
+         * @param data The JSON to gzip.
+         * @param outputStream The stream to write the gzipped JSON to.
          */
-        private static byte[] compress(final String str) throws IOException {
-            if (str == null) {
-                return null;
-            }
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            try (GZIPOutputStream gzip = new GZIPOutputStream(outputStream)) {
-                gzip.write(str.getBytes(StandardCharsets.UTF_8));
+        static void compress(final JsonObjectBuilder.JsonObject data, final OutputStream outputStream)
+                throws IOException {
+            try (Writer writer =
+                         new OutputStreamWriter(new GZIPOutputStream(outputStream), StandardCharsets.UTF_8)) {
+                data.writeTo(writer);
             }
-            return outputStream.toByteArray();
         }
     }
 
@@ -712,7 +837,8 @@ public class Metrics {
             if (value == null) {
                 throw new IllegalArgumentException("JSON value must not be null");
             }
-            appendFieldUnescaped(key, "\"" + escape(value) + "\"");
+            appendKey(key);
+            appendString(value);
             return this;
         }
 
@@ -724,7 +850,8 @@ public class Metrics {
          * @return A reference to this object.
          */
         public JsonObjectBuilder appendField(String key, int value) {
-            appendFieldUnescaped(key, String.valueOf(value));
+            appendKey(key);
+            builder.append(value);
             return this;
         }
 
@@ -739,7 +866,8 @@ public class Metrics {
             if (object == null) {
                 throw new IllegalArgumentException("JSON object must not be null");
             }
-            appendFieldUnescaped(key, object.toString());
+            appendKey(key);
+            builder.append(object.value);
             return this;
         }
 
@@ -754,11 +882,15 @@ public class Metrics {
             if (values == null) {
                 throw new IllegalArgumentException("JSON values must not be null");
             }
-            String escapedValues =
-                    Arrays.stream(values)
-                            .map(value -> "\"" + escape(value) + "\"")
-                            .collect(Collectors.joining(","));
-            appendFieldUnescaped(key, "[" + escapedValues + "]");
+            appendKey(key);
+            builder.append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendString(values[i]);
+            }
+            builder.append(']');
             return this;
         }
 
@@ -773,9 +905,15 @@ public class Metrics {
             if (values == null) {
                 throw new IllegalArgumentException("JSON values must not be null");
             }
-            String escapedValues =
-                    Arrays.stream(values).mapToObj(String::valueOf).collect(Collectors.joining(","));
-            appendFieldUnescaped(key, "[" + escapedValues + "]");
+            appendKey(key);
+            builder.append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(values[i]);
+            }
+            builder.append(']');
             return this;
         }
 
@@ -790,9 +928,15 @@ public class Metrics {
             if (values == null) {
                 throw new IllegalArgumentException("JSON values must not be null");
             }
-            String escapedValues =
-                    Arrays.stream(values).map(JsonObject::toString).collect(Collectors.joining(","));
-            appendFieldUnescaped(key, "[" + escapedValues + "]");
+            appendKey(key);
+            builder.append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(values[i].value);
+            }
+            builder.append(']');
             return this;
         }
 
@@ -803,6 +947,16 @@ public class Metrics {
          * @param escapedValue The escaped value of the field.
          */
         private void appendFieldUnescaped(String key, String escapedValue) {
+            appendKey(key);
+            builder.append(escapedValue);
+        }
+
+        /**
+         * Appends the separator and the key of a new field, the value has to be appended right after it.
+         *
+         * @param key The key of the field.
+         */
+        private void appendKey(String key) {
             if (builder == null) {
                 throw new IllegalStateException("JSON has already been built");
             }
@@ -810,12 +964,24 @@ public class Metrics {
                 throw new IllegalArgumentException("JSON key must not be null");
             }
             if (hasAtLeastOneField) {
-                builder.append(",");
+                builder.append(',');
             }
-            builder.append("\"").append(escape(key)).append("\":").append(escapedValue);
+            appendString(key);
+            builder.append(':');
             hasAtLeastOneField = true;
         }
 
+        /**
+         * Appends a quoted and escaped string, escaping directly into the builder.
+         *
+         * @param value The string to append.
+         */
+        private void appendString(String value) {
+            builder.append('"');
+            escape(value, builder);
+            builder.append('"');
+        }
+
         /**
          * Builds the JSON string and invalidates this builder.
          *
@@ -825,7 +991,8 @@ public class Metrics {
             if (builder == null) {
                 throw new IllegalStateException("JSON has already been built");
             }
-            JsonObject object = new JsonObject(builder.append("}").toString());
+            // The object keeps the builder instead of a copy of its content
+            JsonObject object = new JsonObject(builder.append('}'));
             builder = null;
             return object;
         }
@@ -837,10 +1004,9 @@ public class Metrics {
          * Compact escapes are not used (e.g., '\n' is escaped as "\u000a" and not as "\n").
          *
          * @param value The value to escape.
-         * @return The escaped value.
+         * @param builder The builder to append the escaped value to.
          */
-        private static String escape(String value) {
-            final StringBuilder builder = new StringBuilder();
+        private static void escape(String value, StringBuilder builder) {
             for (int i = 0; i < value.length(); i++) {
                 char c = value.charAt(i);
                 if (c == '"') {
@@ -855,7 +1021,6 @@ public class Metrics {
                     builder.append(c);
                 }
             }
-            return builder.toString();
         }
 
         /**
@@ -867,15 +1032,29 @@ public class Metrics {
          */
         public static class JsonObject {
 
-            private final String value;
+            private final StringBuilder value;
 
-            private JsonObject(String value) {
+            private JsonObject(StringBuilder value) {
                 this.value = value;
             }
 
+            /**
+             * Writes the JSON to a writer in small chunks, without creating a string of the whole JSON.
+             *
+             * @param writer The writer to write the JSON to.
+             */
+            private void writeTo(Writer writer) throws IOException {
+                char[] buffer = new char[Math.min(8192, Math.max(1, value.length()))];
+                for (int start = 0; start < value.length(); start += buffer.length) {
+                    int end = Math.min(value.length(), start + buffer.length);
+                    value.getChars(start, end, buffer, 0);
+                    writer.write(buffer, 0, end - start);
+                }
+            }
+
             @Override
             public String toString() {
-                return value;
+                return value.toString();
             }
         }
     }
@@ -0,0 +1,143 @@
+package com.ashkiano.lightleveldisplay;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the display pipeline, shown by '/lightlevel stats'.
+ * <p>
+ * Every counter is a {@link LongAdder} and every histogram is lock-free, so recording costs a few atomic
+ * increments and the statistics can stay enabled permanently. Durations are only measured for the events
+ * that actually do work, rejected movement events are only counted.
+ */
+public class PerformanceStats {
+
+    // Movement events received, and the ones rejected at each early exit of the movement handler
+    private final LongAdder moveEvents = new LongAdder();
+    private final LongAdder moveRejectedDisabled = new LongAdder();
+    private final LongAdder moveRejectedSameBlock = new LongAdder();
+    private final LongAdder moveRejectedRateLimit = new LongAdder();
+    // Light levels measured, from movement events or from the repeating task
+    private final LongAdder samples = new LongAdder();
+    // Display updates caused by a nearby block that emits or blocks light being placed or broken
+    private final LongAdder lightChangeRefreshes = new LongAdder();
+    // Messages sent to players, and messages dropped because the player already sees the same message
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesSuppressed = new LongAdder();
+    // Time spent handling a movement event that was not rejected, including measuring and sending
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    // Time spent rendering and sending a single message
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    // System.nanoTime() of the last reset
+    private volatile long sinceNanos = System.nanoTime();
+
+    public void moveEvent() {
+        moveEvents.increment();
+    }
+
+    public void moveRejectedDisabled() {
+        moveRejectedDisabled.increment();
+    }
+
+    public void moveRejectedSameBlock() {
+        moveRejectedSameBlock.increment();
+    }
+
+    public void moveRejectedRateLimit() {
+        moveRejectedRateLimit.increment();
+    }
+
+    public void sample() {
+        samples.increment();
+    }
+
+    public void lightChangeRefresh() {
+        lightChangeRefreshes.increment();
+    }
+
+    public void messageSuppressed() {
+        messagesSuppressed.increment();
+    }
+
+    /**
+     * Records a message that was sent to a player.
+     *
+     * @param nanos The time it took to render and send the message.
+     */
+    public void messageSent(long nanos) {
+        messagesSent.increment();
+        sendLatency.record(nanos);
+    }
+
+    /**
+     * Records a movement event that was handled.
+     *
+     * @param nanos The time it took to handle the event.
+     */
+    public void moveHandled(long nanos) {
+        moveLatency.record(nanos);
+    }
+
+    /** Resets all counters and histograms. */
+    public void reset() {
+        moveEvents.reset();
+        moveRejectedDisabled.reset();
+        moveRejectedSameBlock.reset();
+        moveRejectedRateLimit.reset();
+        samples.reset();
+        lightChangeRefreshes.reset();
+        messagesSent.reset();
+        messagesSuppressed.reset();
+        moveLatency.reset();
+        sendLatency.reset();
+        sinceNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of seconds since the last reset, at least 1 so rates can be divided by it.
+     *
+     * @return The number of seconds.
+     */
+    public long getElapsedSeconds() {
+        return Math.max(1L, (System.nanoTime() - sinceNanos) / 1_000_000_000L);
+    }
+
+    public long getMoveEvents() {
+        return moveEvents.sum();
+    }
+
+    public long getMoveRejectedDisabled() {
+        return moveRejectedDisabled.sum();
+    }
+
+    public long getMoveRejectedSameBlock() {
+        return moveRejectedSameBlock.sum();
+    }
+
+    public long getMoveRejectedRateLimit() {
+        return moveRejectedRateLimit.sum();
+    }
+
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    public long getLightChangeRefreshes() {
+        return lightChangeRefreshes.sum();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getMessagesSuppressed() {
+        return messagesSuppressed.sum();
+    }
+
+    public LatencyHistogram getMoveLatency() {
+        return moveLatency;
+    }
+
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+}
@@ -0,0 +1,115 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.World;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A spatial hash of the players who have the display enabled, keyed by world and chunk, so the players near
+ * a block can be found with a few map lookups instead of by going through all online players.
+ * <p>
+ * A player is moved to another cell whenever the display of the player is updated in another chunk.
+ * All methods are thread-safe, so the grid can be updated from the threads of several regions.
+ */
+public class PlayerGrid {
+
+    // The players in every chunk per world, empty cells are removed
+    private final Map<UUID, Map<Long, Set<UUID>>> cells = new ConcurrentHashMap<>();
+    // The cell every player is currently in
+    private final Map<UUID, Cell> positions = new ConcurrentHashMap<>();
+
+    /**
+     * Puts a player into the cell of a chunk, and takes the player out of the previous cell.
+     *
+     * @param playerUUID The UUID of the player.
+     * @param world      The world the player is in.
+     * @param chunkX     The X coordinate of the chunk the player is in.
+     * @param chunkZ     The Z coordinate of the chunk the player is in.
+     */
+    public void update(UUID playerUUID, World world, int chunkX, int chunkZ) {
+        UUID worldUID = world.getUID();
+        long chunkKey = SnapshotCache.chunkKey(chunkX, chunkZ);
+        Cell previous = positions.get(playerUUID);
+        // Most updates happen within the same chunk, and those cost a single lookup
+        if (previous != null && previous.chunkKey == chunkKey && previous.worldUID.equals(worldUID)) {
+            return;
+        }
+
+        positions.put(playerUUID, new Cell(worldUID, chunkKey));
+        if (previous != null) {
+            leave(playerUUID, previous);
+        }
+        cells.computeIfAbsent(worldUID, uid -> new ConcurrentHashMap<>()).compute(chunkKey, (key, players) -> {
+            Set<UUID> cell = players != null ? players : ConcurrentHashMap.newKeySet();
+            cell.add(playerUUID);
+            return cell;
+        });
+    }
+
+    /**
+     * Takes a player out of the grid, for example when the player disables the display or quits.
+     *
+     * @param playerUUID The UUID of the player.
+     */
+    public void remove(UUID playerUUID) {
+        Cell previous = positions.remove(playerUUID);
+        if (previous != null) {
+            leave(playerUUID, previous);
+        }
+    }
+
+    /**
+     * Passes every player in a square of chunks to the consumer.
+     *
+     * @param world  The world of the chunks.
+     * @param chunkX The X coordinate of the chunk in the center.
+     * @param chunkZ The Z coordinate of the chunk in the center.
+     * @param radius The number of chunks around the center chunk.
+     * @param action Called with the UUID of every player in the square.
+     */
+    public void forEachNear(World world, int chunkX, int chunkZ, int radius, Consumer<UUID> action) {
+        Map<Long, Set<UUID>> worldCells = cells.get(world.getUID());
+        if (worldCells == null) {
+            return;
+        }
+        for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+            for (int z = chunkZ - radius; z <= chunkZ + radius; z++) {
+                Set<UUID> players = worldCells.get(SnapshotCache.chunkKey(x, z));
+                if (players != null) {
+                    players.forEach(action);
+                }
+            }
+        }
+    }
+
+    /** Removes all players. */
+    public void clear() {
+        cells.clear();
+        positions.clear();
+    }
+
+    private void leave(UUID playerUUID, Cell cell) {
+        Map<Long, Set<UUID>> worldCells = cells.get(cell.worldUID);
+        if (worldCells != null) {
+            // Drop the cell once it is empty, so the grid only holds chunks with players in them
+            worldCells.computeIfPresent(cell.chunkKey, (key, players) -> {
+                players.remove(playerUUID);
+                return players.isEmpty() ? null : players;
+            });
+        }
+    }
+
+    private static final class Cell {
+        private final UUID worldUID;
+        private final long chunkKey;
+
+        private Cell(UUID worldUID, long chunkKey) {
+            this.worldUID = worldUID;
+            this.chunkKey = chunkKey;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.ashkiano.lightleveldisplay;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All display state of one online player.
+ * <p>
+ * A session is created when the player joins and dropped when the player quits, so nothing is kept for
+ * players who are no longer online. The enabled flag, the chosen channel and the last sample are volatile
+ * and may be read from any thread, for example by the async light sampler. The display state is only
+ * touched on the thread that owns the player, which is the main thread on a normal server and the thread
+ * of the player's region on a region-threaded server.
+ */
+public class PlayerSession {
+
+    // Bits of the packed last sample
+    private static final int SAMPLE_LIGHT_LEVEL_MASK = 0b1111;
+    private static final int SAMPLE_CAN_SPAWN = 1 << 4;
+    private static final int SAMPLE_PRESENT = 1 << 5;
+    private static final int SAMPLE_SKY_LIGHT_SHIFT = 6;
+    private static final int SAMPLE_BLOCK_LIGHT_SHIFT = 10;
+    // Value of sampleScheduledNanos while no sample is scheduled
+    private static final long NOT_SCHEDULED = Long.MIN_VALUE;
+
+    private final UUID playerUUID;
+    private volatile boolean displayEnabled = false;
+    // The channel the player has chosen, or null to use the configured default channel
+    private volatile DisplayChannel channel = null;
+    // The last sampled light levels and spawn verdict packed into one int, so they are always read together
+    private volatile int lastSample = 0;
+    // System.nanoTime() of the last sample
+    private volatile long lastSampleNanos = 0L;
+    // System.nanoTime() when a sample was scheduled on the thread that owns the player, so it is only scheduled
+    // once, or NOT_SCHEDULED
+    private final AtomicLong sampleScheduledNanos = new AtomicLong(NOT_SCHEDULED);
+    // What was last sent to the player, only accessed on the thread that owns the player
+    private final DisplayState displayState = new DisplayState();
+    // Limits how often the display of the player is updated
+    private final TokenBucket updateBucket = new TokenBucket();
+    // The messages in the language of the player, or null to use the configured language
+    private volatile LanguageCatalog catalog = null;
+
+    public PlayerSession(UUID playerUUID) {
+        this.playerUUID = playerUUID;
+    }
+
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    public boolean isDisplayEnabled() {
+        return displayEnabled;
+    }
+
+    public void setDisplayEnabled(boolean displayEnabled) {
+        this.displayEnabled = displayEnabled;
+    }
+
+    public DisplayChannel getChannel() {
+        return channel;
+    }
+
+    public void setChannel(DisplayChannel channel) {
+        this.channel = channel;
+    }
+
+    public LanguageCatalog getCatalog() {
+        return catalog;
+    }
+
+    public void setCatalog(LanguageCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public DisplayState getDisplayState() {
+        return displayState;
+    }
+
+    public TokenBucket getUpdateBucket() {
+        return updateBucket;
+    }
+
+    /**
+     * Remembers the latest light level measured for the player, whether or not it was sent.
+     *
+     * @param lightLevel The light level between 0 and 15.
+     * @param skyLight   The light from the sky between 0 and 15, not reduced by the time of day.
+     * @param blockLight The light from blocks between 0 and 15.
+     * @param canSpawn   Whether monsters can spawn at this light level.
+     * @param nowNanos   The current System.nanoTime().
+     */
+    public void recordSample(int lightLevel, int skyLight, int blockLight, boolean canSpawn, long nowNanos) {
+        lastSampleNanos = nowNanos;
+        lastSample = SAMPLE_PRESENT | (canSpawn ? SAMPLE_CAN_SPAWN : 0) | (lightLevel & SAMPLE_LIGHT_LEVEL_MASK)
+                | (skyLight & SAMPLE_LIGHT_LEVEL_MASK) << SAMPLE_SKY_LIGHT_SHIFT
+                | (blockLight & SAMPLE_LIGHT_LEVEL_MASK) << SAMPLE_BLOCK_LIGHT_SHIFT;
+        sampleScheduledNanos.set(NOT_SCHEDULED);
+    }
+
+    /**
+     * Marks that a sample is scheduled for the player, unless one already is. The mark is cleared by the next
+     * {@link #recordSample(int, int, int, boolean, long)}, or expires after the timeout in case the scheduled
+     * sample never runs, for example because the server dropped the task when the player changed worlds.
+     *
+     * @param nowNanos     The current System.nanoTime().
+     * @param timeoutNanos The time after which a scheduled sample that has not run is scheduled again.
+     * @return True if no sample was scheduled yet and the caller should schedule one.
+     */
+    public boolean tryScheduleSample(long nowNanos, long timeoutNanos) {
+        long scheduled = sampleScheduledNanos.get();
+        if (scheduled != NOT_SCHEDULED && nowNanos - scheduled < timeoutNanos) {
+            return false;
+        }
+        return sampleScheduledNanos.compareAndSet(scheduled, nowNanos);
+    }
+
+    /**
+     * Checks whether anything has been sampled for the player since the session was created.
+     *
+     * @return True if there is a last sample.
+     */
+    public boolean hasSample() {
+        return (lastSample & SAMPLE_PRESENT) != 0;
+    }
+
+    /**
+     * Returns the last sampled light level.
+     *
+     * @return The light level between 0 and 15, or -1 if nothing has been sampled yet.
+     */
+    public int getLastLightLevel() {
+        int sample = lastSample;
+        return (sample & SAMPLE_PRESENT) != 0 ? sample & SAMPLE_LIGHT_LEVEL_MASK : -1;
+    }
+
+    /**
+     * Returns the light from the sky at the last sampled location.
+     *
+     * @return The sky light between 0 and 15, or -1 if nothing has been sampled yet.
+     */
+    public int getLastSkyLight() {
+        int sample = lastSample;
+        return (sample & SAMPLE_PRESENT) != 0 ? sample >>> SAMPLE_SKY_LIGHT_SHIFT & SAMPLE_LIGHT_LEVEL_MASK : -1;
+    }
+
+    /**
+     * Returns the light from blocks at the last sampled location.
+     *
+     * @return The block light between 0 and 15, or -1 if nothing has been sampled yet.
+     */
+    public int getLastBlockLight() {
+        int sample = lastSample;
+        return (sample & SAMPLE_PRESENT) != 0 ? sample >>> SAMPLE_BLOCK_LIGHT_SHIFT & SAMPLE_LIGHT_LEVEL_MASK : -1;
+    }
+
+    /**
+     * Returns whether monsters could spawn at the last sampled location.
+     *
+     * @return The last spawn verdict, or false if nothing has been sampled yet.
+     */
+    public boolean getLastCanSpawn() {
+        return (lastSample & SAMPLE_CAN_SPAWN) != 0;
+    }
+
+    /**
+     * Returns when the last sample was taken.
+     *
+     * @return The System.nanoTime() of the last sample.
+     */
+    public long getLastSampleNanos() {
+        return lastSampleNanos;
+    }
+}
@@ -0,0 +1,244 @@
+package com.ashkiano.lightleveldisplay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the display preferences of players, so they survive restarts.
+ * <p>
+ * Preferences are spread over 256 shard files by the first byte of the player's UUID. Each shard is an
+ * append-only log of fixed size records (the UUID and one byte of preferences), where the last record of a
+ * player wins. A lookup only reads one small shard, so nothing has to be loaded at startup no matter how
+ * many players have ever joined. Changes are queued and appended in batches by a background thread, and
+ * shards that grew too large are compacted by rewriting only the latest record of every player.
+ * None of the methods touch the disk on the calling thread, except {@link #load(UUID)} and {@link #close()}.
+ */
+public class PreferenceStore {
+
+    // The preferences of a player who never changed anything
+    public static final byte DEFAULT_PREFERENCES = 0;
+
+    private static final int SHARDS = 256;
+    // UUID (16 bytes) followed by the preferences (1 byte)
+    private static final int RECORD_SIZE = 17;
+    // A shard is compacted when it is larger than this and has doubled in size since its last compaction
+    private static final long COMPACTION_THRESHOLD = 64L * 1024L;
+
+    private final File folder;
+    private final Logger logger;
+    // Changes that have not been written to disk yet, the latest change of a player replaces older ones
+    private final Map<UUID, Byte> pending = new ConcurrentHashMap<>();
+    private final Object[] shardLocks = new Object[SHARDS];
+    // The size of every shard right after its last compaction, only accessed by the background thread
+    private final long[] compactedLengths = new long[SHARDS];
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a new preference store.
+     *
+     * @param folder               The folder to store the shard files in.
+     * @param logger               The logger to report errors to.
+     * @param flushIntervalSeconds The number of seconds between two writes of the queued changes.
+     */
+    public PreferenceStore(File folder, Logger logger, int flushIntervalSeconds) {
+        this.folder = folder;
+        this.logger = logger;
+        for (int i = 0; i < SHARDS; i++) {
+            shardLocks[i] = new Object();
+        }
+        this.executor = new ScheduledThreadPoolExecutor(1, task -> new Thread(task, "LightLevelDisplay-Preferences"));
+        this.executor.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reads the preferences of a player from disk. This blocks, so it must not be called from the main thread.
+     *
+     * @param playerUUID The UUID of the player.
+     * @return The preferences of the player, or {@link #DEFAULT_PREFERENCES} if none are stored.
+     */
+    public byte load(UUID playerUUID) {
+        // A change that was not written yet is newer than anything on disk
+        Byte queued = pending.get(playerUUID);
+        if (queued != null) {
+            return queued;
+        }
+
+        int shard = shard(playerUUID);
+        synchronized (shardLocks[shard]) {
+            byte preferences = DEFAULT_PREFERENCES;
+            File file = shardFile(shard);
+            if (!file.exists()) {
+                return preferences;
+            }
+
+            // The last record of the player wins
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    long most = in.readLong();
+                    long least = in.readLong();
+                    byte value = in.readByte();
+                    if (most == playerUUID.getMostSignificantBits() && least == playerUUID.getLeastSignificantBits()) {
+                        preferences = value;
+                    }
+                }
+            } catch (EOFException e) {
+                return preferences;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to read player preferences from " + file.getName(), e);
+                return preferences;
+            }
+        }
+    }
+
+    /**
+     * Queues a change of the preferences of a player, which is written to disk by the background thread.
+     *
+     * @param playerUUID  The UUID of the player.
+     * @param preferences The new preferences of the player.
+     */
+    public void save(UUID playerUUID, byte preferences) {
+        pending.put(playerUUID, preferences);
+    }
+
+    /** Stops the background thread and writes all queued changes. */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Group the queued changes by shard, so every shard file is opened only once
+        Map<Integer, Map<UUID, Byte>> byShard = new HashMap<>();
+        for (Map.Entry<UUID, Byte> entry : pending.entrySet()) {
+            byShard.computeIfAbsent(shard(entry.getKey()), shard -> new LinkedHashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        for (Map.Entry<Integer, Map<UUID, Byte>> shardEntry : byShard.entrySet()) {
+            int shard = shardEntry.getKey();
+            synchronized (shardLocks[shard]) {
+                File file = shardFile(shard);
+                try {
+                    // Cut off a record that was only partially written, for example because the server crashed
+                    if (file.length() % RECORD_SIZE != 0) {
+                        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                            raf.setLength(file.length() - file.length() % RECORD_SIZE);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to repair player preferences in " + file.getName(), e);
+                    continue;
+                }
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                    for (Map.Entry<UUID, Byte> entry : shardEntry.getValue().entrySet()) {
+                        out.writeLong(entry.getKey().getMostSignificantBits());
+                        out.writeLong(entry.getKey().getLeastSignificantBits());
+                        out.writeByte(entry.getValue());
+                    }
+                } catch (IOException e) {
+                    // Keep the changes queued, so they are written on the next attempt
+                    logger.log(Level.WARNING, "Failed to write player preferences to " + file.getName(), e);
+                    continue;
+                }
+
+                // Only forget changes that were not replaced by a newer change in the meantime
+                for (Map.Entry<UUID, Byte> entry : shardEntry.getValue().entrySet()) {
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+
+                if (file.length() > Math.max(COMPACTION_THRESHOLD, compactedLengths[shard] * 2)) {
+                    compact(file);
+                    compactedLengths[shard] = file.length();
+                }
+            }
+        }
+    }
+
+    /** Rewrites a shard with only the latest record of every player, leaving out default preferences. */
+    private void compact(File file) {
+        Map<UUID, Byte> latest = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long records = file.length() / RECORD_SIZE;
+            for (long i = 0; i < records; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                latest.put(uuid, in.readByte());
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read player preferences from " + file.getName() + " for compaction", e);
+            return;
+        }
+
+        List<Map.Entry<UUID, Byte>> kept = new ArrayList<>();
+        for (Map.Entry<UUID, Byte> entry : latest.entrySet()) {
+            if (entry.getValue() != DEFAULT_PREFERENCES) {
+                kept.add(entry);
+            }
+        }
+        // Nothing to gain if every record is still needed
+        if ((long) kept.size() * RECORD_SIZE >= file.length()) {
+            return;
+        }
+
+        // Write the compacted shard next to the old one and swap it in atomically
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            for (Map.Entry<UUID, Byte> entry : kept) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeByte(entry.getValue());
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to compact player preferences in " + file.getName(), e);
+            temporary.delete();
+            return;
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to replace " + file.getName() + " with its compacted version", e);
+            temporary.delete();
+        }
+    }
+
+    private File shardFile(int shard) {
+        return new File(folder, String.format("%02x.dat", shard));
+    }
+
+    private static int shard(UUID playerUUID) {
+        return (int) (playerUUID.getMostSignificantBits() >>> 56);
+    }
+}
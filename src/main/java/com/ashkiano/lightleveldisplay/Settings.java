@@ -0,0 +1,317 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the plugin configuration.
+ * <p>
+ * Every value is parsed once when the configuration is loaded, so the hot paths read plain fields instead of
+ * walking the configuration tree by path on every event. A reload builds a new snapshot and replaces the old
+ * one as a whole, so a reader always sees the values of a single configuration. Values that are not valid are
+ * replaced by their defaults and reported through {@link #getProblems()}, so the rest of the plugin can rely on
+ * every value being within its range.
+ */
+public final class Settings {
+
+    // Nanoseconds per server tick
+    private static final long NANOS_PER_TICK = 50_000_000L;
+
+    private final boolean checkPermission;
+    private final String permissionNode;
+    private final String adminPermissionNode;
+    private final DisplayChannel defaultChannel;
+    private final String languageCode;
+    private final boolean usePlayerLanguage;
+    private final boolean schedulerMode;
+    private final int updateIntervalTicks;
+    private final long refreshIntervalNanos;
+    private final boolean asyncSampling;
+    private final int overlayRadius;
+    private final int overlayRescanIntervalTicks;
+    private final int overlayMaxParticlesPerTick;
+    private final int overlayMaxParticlesPerPlayer;
+    private final int overlayMaxSnapshotsPerTick;
+    private final int indexMaxSections;
+    private final int preferencesFlushIntervalSeconds;
+    private final boolean checkForUpdates;
+    private final long updateCheckCacheMillis;
+    private final int updateCheckTimeoutMillis;
+    private final int statsLogIntervalMinutes;
+    private final int auditChunksPerTick;
+    private final long auditTickBudgetNanos;
+    private final int auditThreads;
+    private final int auditMaxRadius;
+    private final boolean adaptiveThrottling;
+    private final double throttleMinTps;
+    private final double throttleMinScale;
+    private final double playerUpdatesPerSecond;
+    private final double playerUpdateBurst;
+    private final SpawnRules spawnRules;
+    private final long placeholderMaxAgeNanos;
+    // The invalid values that were replaced by their defaults
+    private final List<String> problems = new ArrayList<>();
+
+    private Settings(ConfigurationSection config) {
+        checkPermission = config.getBoolean("check-permission", true);
+        permissionNode = config.getString("permission-node", "lightdisplay");
+        adminPermissionNode = config.getString("admin-permission-node", "lightdisplay.admin");
+        defaultChannel = config.getBoolean("display-in-actionbar", true) ? DisplayChannel.ACTIONBAR : DisplayChannel.CHAT;
+        languageCode = config.getString("language-code", "en");
+        usePlayerLanguage = config.getBoolean("use-player-language", true);
+        String updateMode = config.getString("update-mode", "move");
+        if (!"move".equalsIgnoreCase(updateMode) && !"scheduler".equalsIgnoreCase(updateMode)) {
+            problems.add("update-mode: '" + updateMode + "' is neither 'move' nor 'scheduler', using 'move'");
+        }
+        schedulerMode = "scheduler".equalsIgnoreCase(updateMode);
+        updateIntervalTicks = getInt(config, "update-interval-ticks", 10, 1, 1200);
+        refreshIntervalNanos = getInt(config, "refresh-interval-ticks", 40, 1, 72000) * NANOS_PER_TICK;
+        asyncSampling = config.getBoolean("async-sampling", false);
+        overlayRadius = getInt(config, "overlay-radius", 16, 1, 64);
+        overlayRescanIntervalTicks = getInt(config, "overlay-rescan-interval-ticks", 10, 1, 1200);
+        overlayMaxParticlesPerTick = getInt(config, "overlay-max-particles-per-tick", 2000, 1, 100000);
+        overlayMaxParticlesPerPlayer = getInt(config, "overlay-max-particles-per-player", 100, 1, 10000);
+        overlayMaxSnapshotsPerTick = getInt(config, "overlay-max-snapshots-per-tick", 8, 1, 1000);
+        indexMaxSections = getInt(config, "index-max-sections", 50000, 64, 10000000);
+        preferencesFlushIntervalSeconds = getInt(config, "preferences-flush-interval-seconds", 5, 1, 3600);
+        checkForUpdates = config.getBoolean("check-for-updates", true);
+        updateCheckCacheMillis = getInt(config, "update-check-cache-hours", 24, 0, 8760) * 60L * 60L * 1000L;
+        updateCheckTimeoutMillis = getInt(config, "update-check-timeout-seconds", 5, 1, 60) * 1000;
+        statsLogIntervalMinutes = getInt(config, "stats-log-interval-minutes", 0, 0, 1440);
+        auditChunksPerTick = getInt(config, "audit-chunks-per-tick", 16, 1, 1024);
+        auditTickBudgetNanos = (long) (getDouble(config, "audit-tick-budget-millis", 2.0D, 0.1D, 50.0D) * 1_000_000L);
+        auditThreads = getInt(config, "audit-threads", 2, 1, 64);
+        auditMaxRadius = getInt(config, "audit-max-radius", 64, 0, 1024);
+        adaptiveThrottling = config.getBoolean("adaptive-throttling", true);
+        throttleMinTps = getDouble(config, "throttle-min-tps", 18.0D, 1.0D, 20.0D);
+        throttleMinScale = getDouble(config, "throttle-min-scale", 0.1D, 0.01D, 1.0D);
+        playerUpdatesPerSecond = getDouble(config, "player-updates-per-second", 10.0D, 0.1D, 1000.0D);
+        playerUpdateBurst = getDouble(config, "player-update-burst", 5.0D, 1.0D, 1000.0D);
+        spawnRules = SpawnRules.compile(config.getConfigurationSection("spawn-rules"));
+        for (String name : spawnRules.getUnknownNames()) {
+            problems.add("spawn-rules: unknown name '" + name + "' is ignored");
+        }
+        placeholderMaxAgeNanos = getInt(config, "placeholder-max-age-millis", 1000, 0, 60000) * 1_000_000L;
+    }
+
+    /** Reads a whole number, and falls back to the default if it is not a number or outside of its range. */
+    private int getInt(ConfigurationSection config, String key, int defaultValue, int min, int max) {
+        if (!config.isSet(key)) {
+            return defaultValue;
+        }
+        Object value = config.get(key);
+        if (!(value instanceof Integer) || (Integer) value < min || (Integer) value > max) {
+            problems.add(key + ": '" + value + "' is not a whole number between " + min + " and " + max
+                    + ", using " + defaultValue);
+            return defaultValue;
+        }
+        return (Integer) value;
+    }
+
+    /** Reads a number, and falls back to the default if it is not a number or outside of its range. */
+    private double getDouble(ConfigurationSection config, String key, double defaultValue, double min, double max) {
+        if (!config.isSet(key)) {
+            return defaultValue;
+        }
+        Object value = config.get(key);
+        double number = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        // NaN fails both comparisons, so it is reported as well
+        if (!(number >= min && number <= max)) {
+            problems.add(key + ": '" + value + "' is not a number between " + min + " and " + max
+                    + ", using " + defaultValue);
+            return defaultValue;
+        }
+        return number;
+    }
+
+    /**
+     * Parses the settings from a loaded configuration. Safe to call from any thread, as long as the
+     * configuration is not modified at the same time.
+     *
+     * @param config The configuration to read the settings from.
+     * @return The parsed settings.
+     */
+    public static Settings load(ConfigurationSection config) {
+        return new Settings(config);
+    }
+
+    /**
+     * Describes the values of the configuration that were not valid and replaced by their defaults.
+     *
+     * @return One line per invalid value, naming its key, empty if all values are valid.
+     */
+    public List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    public boolean isCheckPermission() {
+        return checkPermission;
+    }
+
+    public String getPermissionNode() {
+        return permissionNode;
+    }
+
+    public String getAdminPermissionNode() {
+        return adminPermissionNode;
+    }
+
+    /**
+     * Returns the channel used by players who did not choose their own one.
+     *
+     * @return The action bar or the chat, depending on 'display-in-actionbar'.
+     */
+    public DisplayChannel getDefaultChannel() {
+        return defaultChannel;
+    }
+
+    public String getLanguageCode() {
+        return languageCode;
+    }
+
+    /**
+     * Checks whether players get the messages in the language of their client when a language file exists for it.
+     *
+     * @return True if 'use-player-language' is enabled, otherwise everyone gets the configured language.
+     */
+    public boolean isUsePlayerLanguage() {
+        return usePlayerLanguage;
+    }
+
+    /**
+     * Checks whether the display is updated from a repeating task instead of from movement events.
+     *
+     * @return True if 'update-mode' is 'scheduler'.
+     */
+    public boolean isSchedulerMode() {
+        return schedulerMode;
+    }
+
+    public int getUpdateIntervalTicks() {
+        return updateIntervalTicks;
+    }
+
+    public long getRefreshIntervalNanos() {
+        return refreshIntervalNanos;
+    }
+
+    public boolean isAsyncSampling() {
+        return asyncSampling;
+    }
+
+    public int getOverlayRadius() {
+        return overlayRadius;
+    }
+
+    public int getOverlayRescanIntervalTicks() {
+        return overlayRescanIntervalTicks;
+    }
+
+    public int getOverlayMaxParticlesPerTick() {
+        return overlayMaxParticlesPerTick;
+    }
+
+    public int getOverlayMaxParticlesPerPlayer() {
+        return overlayMaxParticlesPerPlayer;
+    }
+
+    public int getOverlayMaxSnapshotsPerTick() {
+        return overlayMaxSnapshotsPerTick;
+    }
+
+    public int getIndexMaxSections() {
+        return indexMaxSections;
+    }
+
+    public int getPreferencesFlushIntervalSeconds() {
+        return preferencesFlushIntervalSeconds;
+    }
+
+    public boolean isCheckForUpdates() {
+        return checkForUpdates;
+    }
+
+    public long getUpdateCheckCacheMillis() {
+        return updateCheckCacheMillis;
+    }
+
+    public int getUpdateCheckTimeoutMillis() {
+        return updateCheckTimeoutMillis;
+    }
+
+    /**
+     * Returns how often the statistics are written to the log.
+     *
+     * @return The interval in minutes, or 0 or less if the statistics are not logged.
+     */
+    public int getStatsLogIntervalMinutes() {
+        return statsLogIntervalMinutes;
+    }
+
+    public int getAuditChunksPerTick() {
+        return auditChunksPerTick;
+    }
+
+    public long getAuditTickBudgetNanos() {
+        return auditTickBudgetNanos;
+    }
+
+    public int getAuditThreads() {
+        return auditThreads;
+    }
+
+    /**
+     * Returns the largest radius of '/lightlevel audit'.
+     *
+     * @return The radius in chunks.
+     */
+    public int getAuditMaxRadius() {
+        return auditMaxRadius;
+    }
+
+    public boolean isAdaptiveThrottling() {
+        return adaptiveThrottling;
+    }
+
+    /**
+     * Returns the TPS below which the plugin scales its work down.
+     *
+     * @return The TPS between 1 and 20.
+     */
+    public double getThrottleMinTps() {
+        return throttleMinTps;
+    }
+
+    /**
+     * Returns the smallest share of its normal work the plugin does while the server is lagging.
+     *
+     * @return The share between 0 and 1.
+     */
+    public double getThrottleMinScale() {
+        return throttleMinScale;
+    }
+
+    public double getPlayerUpdatesPerSecond() {
+        return playerUpdatesPerSecond;
+    }
+
+    public double getPlayerUpdateBurst() {
+        return playerUpdateBurst;
+    }
+
+    public SpawnRules getSpawnRules() {
+        return spawnRules;
+    }
+
+    /**
+     * Returns how old the last sample of a player may be before the placeholders measure the light level again.
+     *
+     * @return The maximum age in nanoseconds.
+     */
+    public long getPlaceholderMaxAgeNanos() {
+        return placeholderMaxAgeNanos;
+    }
+}
@@ -0,0 +1,328 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockIgniteEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches chunk snapshots, so light levels and blocks can be read off the main thread.
+ * <p>
+ * Snapshots are captured when they are first needed, and captured again only after a block in or around the chunk
+ * changed: placed or broken blocks, physics updates like lamps switched by redstone, flowing lava, fire, pistons and
+ * explosions. The changes of a tick are collected per chunk and marked once on the next tick, when the server has
+ * spread the new light, so a busy redstone clock costs one mark per chunk and tick. The time of day is not part of
+ * a snapshot, the sky darkness is applied when reading it. Snapshots that have not been used for a while and
+ * snapshots of unloaded chunks are dropped. A snapshot must be requested from the thread that owns the chunk, which
+ * is the main thread on a normal server and the thread of the region on a region-threaded server, and several
+ * regions may use the cache at the same time. The returned snapshots themselves are immutable and can be read from
+ * any thread.
+ */
+public class SnapshotCache implements Listener {
+
+    // Snapshots that have not been used for this long are dropped to free memory
+    private static final long IDLE_NANOS = 30_000_000_000L;
+
+    private final LightLevelDisplay plugin;
+    // Cached snapshots per world and chunk key
+    private final Map<UUID, Map<Long, CachedSnapshot>> snapshots = new ConcurrentHashMap<>();
+    // Chunks per world in which blocks changed during this tick, marked as outdated on the next tick
+    private final Map<UUID, Set<Long>> pendingChanges = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // Source of the change counts, increasing with every chunk marked as outdated
+    private final AtomicLong changes = new AtomicLong();
+    private TaskScheduler.Task evictionTask = null;
+
+    public SnapshotCache(LightLevelDisplay plugin) {
+        this.plugin = plugin;
+    }
+
+    /** Starts listening for block and chunk changes and evicting idle snapshots. */
+    public void start() {
+        if (evictionTask == null) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            evictionTask = plugin.getTaskScheduler().runGlobalTimer(this::evictIdleSnapshots, 600L, 600L);
+        }
+    }
+
+    /** Stops the cache and drops all snapshots. */
+    public void stop() {
+        if (evictionTask != null) {
+            evictionTask.cancel();
+            evictionTask = null;
+            HandlerList.unregisterAll(this);
+        }
+        snapshots.clear();
+        pendingChanges.clear();
+    }
+
+    /**
+     * Returns an up-to-date snapshot of a chunk, capturing it if it is not cached or was changed.
+     *
+     * @param world  The world of the chunk.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The snapshot of the chunk.
+     */
+    public ChunkSnapshot get(World world, int chunkX, int chunkZ) {
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.computeIfAbsent(world.getUID(), uid -> new ConcurrentHashMap<>());
+        long key = chunkKey(chunkX, chunkZ);
+        CachedSnapshot cached = worldSnapshots.get(key);
+        long now = System.nanoTime();
+
+        // Capture the chunk again if it is not cached yet or something changed in or around it
+        if (cached == null || cached.dirty) {
+            long changeCount = cached != null ? cached.changeCount : changes.incrementAndGet();
+            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+            // The biomes are part of the spawn rules
+            CachedSnapshot captured = new CachedSnapshot(chunk.getChunkSnapshot(false, true, false), changeCount);
+            worldSnapshots.put(key, captured);
+            // A change marked on another thread while capturing may have missed the new snapshot
+            if (cached != null && cached.changeCount != changeCount) {
+                captured.changeCount = cached.changeCount;
+                captured.dirty = true;
+            }
+            cached = captured;
+        }
+        cached.lastUsedNanos = now;
+        return cached.snapshot;
+    }
+
+    /**
+     * Returns the snapshot of a chunk only if it is cached and up to date, without capturing it.
+     *
+     * @param world  The world of the chunk.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The snapshot of the chunk, or null if it would have to be captured.
+     */
+    public ChunkSnapshot getIfCurrent(World world, int chunkX, int chunkZ) {
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(world.getUID());
+        CachedSnapshot cached = worldSnapshots != null ? worldSnapshots.get(chunkKey(chunkX, chunkZ)) : null;
+        if (cached == null || cached.dirty) {
+            return null;
+        }
+        cached.lastUsedNanos = System.nanoTime();
+        return cached.snapshot;
+    }
+
+    /**
+     * Returns a number that changes whenever the snapshot of a chunk is marked as outdated, so callers can tell
+     * whether a chunk changed since they last looked without capturing it. Keeps the snapshot from being dropped
+     * as unused.
+     *
+     * @param world  The world of the chunk.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The change count of the chunk, or -1 if the chunk is not cached.
+     */
+    public long getChangeCount(World world, int chunkX, int chunkZ) {
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(world.getUID());
+        CachedSnapshot cached = worldSnapshots != null ? worldSnapshots.get(chunkKey(chunkX, chunkZ)) : null;
+        if (cached == null) {
+            return -1L;
+        }
+        cached.lastUsedNanos = System.nanoTime();
+        return cached.changeCount;
+    }
+
+    /**
+     * Marks the snapshots of a chunk and its neighbours as outdated, because light spreads up to 15 blocks
+     * and a change can therefore also affect the neighbouring chunks.
+     *
+     * @param world  The world of the chunk.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     */
+    public void invalidateAround(World world, int chunkX, int chunkZ) {
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(world.getUID());
+        if (worldSnapshots == null) {
+            return;
+        }
+
+        markAround(worldSnapshots, chunkX, chunkZ);
+    }
+
+    private void markAround(Map<Long, CachedSnapshot> worldSnapshots, int chunkX, int chunkZ) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                CachedSnapshot cached = worldSnapshots.get(chunkKey(chunkX + dx, chunkZ + dz));
+                if (cached != null) {
+                    cached.changeCount = changes.incrementAndGet();
+                    cached.dirty = true;
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        // The placed block is visible right away, its light only on the next tick
+        Block block = event.getBlock();
+        invalidateAround(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        changed(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        invalidateAround(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        changed(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        changed(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        // The pushed blocks move by one block, which the neighbouring chunks marked with the piston already cover
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        changed(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        changed(event.blockList());
+    }
+
+    private void changed(List<Block> blocks) {
+        for (Block block : blocks) {
+            changed(block);
+        }
+    }
+
+    /**
+     * Remembers that a block changed, so the snapshots around it are captured again once the server has
+     * updated the light on the next tick. Called for every physics update, so it only adds to a set.
+     */
+    private void changed(Block block) {
+        UUID worldUID = block.getWorld().getUID();
+        // Nothing to mark in worlds without cached snapshots
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(worldUID);
+        if (worldSnapshots == null || worldSnapshots.isEmpty()) {
+            return;
+        }
+        pendingChanges.computeIfAbsent(worldUID, uid -> ConcurrentHashMap.newKeySet())
+                .add(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+        if (flushScheduled.compareAndSet(false, true)) {
+            plugin.getTaskScheduler().runGlobal(this::flushChanges);
+        }
+    }
+
+    private void flushChanges() {
+        // Changes from now on are handled by the next flush
+        flushScheduled.set(false);
+        for (Map.Entry<UUID, Set<Long>> entry : pendingChanges.entrySet()) {
+            Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(entry.getKey());
+            Iterator<Long> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                long key = iterator.next();
+                iterator.remove();
+                if (worldSnapshots != null) {
+                    markAround(worldSnapshots, (int) (key >> 32), (int) key);
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Map<Long, CachedSnapshot> worldSnapshots = snapshots.get(event.getWorld().getUID());
+        if (worldSnapshots != null) {
+            worldSnapshots.remove(chunkKey(event.getChunk().getX(), event.getChunk().getZ()));
+        }
+    }
+
+    private void evictIdleSnapshots() {
+        long now = System.nanoTime();
+        for (Map<Long, CachedSnapshot> worldSnapshots : snapshots.values()) {
+            Iterator<CachedSnapshot> iterator = worldSnapshots.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().lastUsedNanos >= IDLE_NANOS) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs chunk coordinates into a single long key.
+     *
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The key of the chunk.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static class CachedSnapshot {
+        private final ChunkSnapshot snapshot;
+        // Set when a block in or around the chunk changed since the snapshot was taken
+        private volatile boolean dirty = false;
+        // Bumped together with the dirty flag and carried over to the next snapshot of the chunk
+        private volatile long changeCount;
+        private volatile long lastUsedNanos = 0L;
+
+        private CachedSnapshot(ChunkSnapshot snapshot, long changeCount) {
+            this.snapshot = snapshot;
+            this.changeCount = changeCount;
+        }
+    }
+}
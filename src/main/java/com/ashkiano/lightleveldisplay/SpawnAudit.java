@@ -0,0 +1,124 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Counts the spawnable blocks of every chunk in an area, for the '/lightlevel audit' command.
+ * <p>
+ * The chunks with the most spawnable blocks are listed in the chat when the audit is done, and the counts of all
+ * chunks with spawnable blocks are written to a CSV file in the 'audits' folder.
+ */
+public class SpawnAudit extends ChunkScan {
+
+    // Number of chunks with the most spawnable blocks listed in the chat
+    private static final int TOP_CHUNKS = 5;
+
+    private final LightLevelDisplay plugin;
+    private final LongAdder spawnable = new LongAdder();
+    // Packed chunk coordinates and count of every chunk with spawnable blocks
+    private final ConcurrentLinkedQueue<long[]> results = new ConcurrentLinkedQueue<>();
+    // Chunks that were skipped because they are not loaded
+    private final LongAdder skippedChunks = new LongAdder();
+
+    /**
+     * Creates a new audit.
+     *
+     * @param plugin        The plugin instance.
+     * @param sender        The sender to report the progress and the result to.
+     * @param catalog       The language to report in.
+     * @param world         The world to audit.
+     * @param chunks        The packed coordinates of the chunks to audit.
+     * @param spawnRules    The rules that decide which blocks are spawnable.
+     * @param loadGenerated Whether chunks that are generated but not loaded are loaded for the audit.
+     */
+    public SpawnAudit(LightLevelDisplay plugin, CommandSender sender, LanguageCatalog catalog, World world, long[] chunks,
+                      SpawnRules spawnRules, boolean loadGenerated) {
+        super(sender, catalog, world, chunks, spawnRules, loadGenerated);
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected Message getName() {
+        return Message.AUDIT_NAME;
+    }
+
+    @Override
+    protected void analyse(int index, long chunkKey, ChunkSnapshot snapshot) {
+        if (snapshot == null) {
+            skippedChunks.increment();
+        } else {
+            int count = spawnRules.countSpawnable(snapshot, environment, NIGHT_SKY_DARKNESS, minHeight, maxHeight);
+            if (count > 0) {
+                results.add(new long[]{chunkKey, count});
+                spawnable.add(count);
+            }
+        }
+        completed(1);
+    }
+
+    @Override
+    protected String describeProgress(int done, int total, long percent) {
+        return catalog.format(Message.AUDIT_PROGRESS, done, total, percent, spawnable.sum());
+    }
+
+    @Override
+    protected void complete(long elapsedNanos) {
+        List<long[]> sorted = new ArrayList<>(results);
+        sorted.sort((a, b) -> Long.compare(b[1], a[1]));
+
+        long skipped = skippedChunks.sum();
+        sender.sendMessage(catalog.format(Message.AUDIT_COMPLETE, getCompleted() - skipped, world.getName(),
+                elapsedNanos / 1_000_000_000L));
+        if (skipped > 0) {
+            sender.sendMessage(catalog.format(Message.AUDIT_SKIPPED, skipped));
+        }
+        sender.sendMessage(catalog.format(Message.AUDIT_SPAWNABLE, spawnable.sum(), sorted.size()));
+        for (int i = 0; i < Math.min(TOP_CHUNKS, sorted.size()); i++) {
+            long key = sorted.get(i)[0];
+            sender.sendMessage(catalog.format(Message.AUDIT_TOP_CHUNK, sorted.get(i)[1], (int) (key >> 32) << 4,
+                    (int) key << 4));
+        }
+        if (sorted.isEmpty()) {
+            return;
+        }
+
+        // Write the counts of all chunks off the main thread
+        plugin.getTaskScheduler().runAsync(() -> {
+            File folder = new File(plugin.getDataFolder(), "audits");
+            folder.mkdirs();
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date());
+            File file = new File(folder, world.getName() + "-" + timestamp + ".csv");
+            try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("chunk_x,chunk_z,block_x,block_z,spawnable_blocks");
+                writer.newLine();
+                for (long[] result : sorted) {
+                    int chunkX = (int) (result[0] >> 32);
+                    int chunkZ = (int) result[0];
+                    writer.write(chunkX + "," + chunkZ + "," + (chunkX << 4) + "," + (chunkZ << 4) + "," + result[1]);
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to write the audit to " + file.getName(), e);
+                return;
+            }
+            plugin.getTaskScheduler().runGlobal(() ->
+                    sender.sendMessage(catalog.format(Message.AUDIT_WRITTEN, file.getName())));
+        });
+    }
+}
@@ -0,0 +1,369 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which blocks of a chunk section (16x16x16 blocks) are spawnable, as a bitset per section.
+ * <p>
+ * Sections are built lazily from chunk snapshots the first time they are asked about, and dropped again
+ * when a block in or around them is placed or broken, when their chunk is unloaded, or when the index grows beyond
+ * its limit, in which case the least recently used sections go first. A section is also rebuilt when it was
+ * built from an older snapshot or at a different sky darkness than the one it is asked about, so other block
+ * changes, which the {@link SnapshotCache} captures again, are picked up as well. Which blocks are
+ * spawnable is decided by the {@link SpawnRules}, and sections built with older rules are rebuilt as well.
+ * All lookups are thread-safe.
+ */
+public class SpawnIndex implements Listener {
+
+    // Number of blocks in a chunk section and the number of longs needed for one bit per block
+    private static final int SECTION_BLOCKS = 16 * 16 * 16;
+    private static final int SECTION_WORDS = SECTION_BLOCKS / 64;
+
+    private final LightLevelDisplay plugin;
+    private final int maxSections;
+    private volatile SpawnRules rules;
+    // Sections per world, keyed by their packed section coordinates
+    private final Map<UUID, Map<Long, Section>> sections = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder sectionCount = new LongAdder();
+    private boolean started = false;
+
+    /**
+     * Creates a new spawn index.
+     *
+     * @param plugin      The plugin instance.
+     * @param maxSections The maximum number of sections to keep before the least recently used ones are dropped.
+     * @param rules       The rules that decide which blocks are spawnable.
+     */
+    public SpawnIndex(LightLevelDisplay plugin, int maxSections, SpawnRules rules) {
+        this.plugin = plugin;
+        this.maxSections = maxSections;
+        this.rules = rules;
+    }
+
+    /**
+     * Replaces the spawn rules, for example after the configuration was reloaded. The sections that were built
+     * with the old rules are rebuilt when they are next asked about, so the number of sections stays correct
+     * while other threads use the index.
+     *
+     * @param rules The new rules.
+     */
+    public void setRules(SpawnRules rules) {
+        this.rules = rules;
+    }
+
+    /** Starts listening for the block and chunk changes that invalidate sections. */
+    public void start() {
+        if (!started) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            started = true;
+        }
+    }
+
+    /** Stops listening for changes and drops all sections. */
+    public void stop() {
+        if (started) {
+            HandlerList.unregisterAll(this);
+            started = false;
+        }
+        sections.clear();
+        sectionCount.reset();
+    }
+
+    /**
+     * Checks whether a monster could spawn in a live block. Must be called from the thread that owns the block.
+     * <p>
+     * The block is checked directly against the rules instead of through a section, so a player moving into
+     * a chunk never has to wait for a snapshot of it to be captured.
+     *
+     * @param block The block.
+     * @return True if a monster could spawn in the block.
+     */
+    public boolean isSpawnable(Block block) {
+        World world = block.getWorld();
+        // There is nothing to stand on below the world and no room above it
+        if (block.getY() <= LightSampler.minHeight(world) || block.getY() >= world.getMaxHeight() - 1) {
+            return false;
+        }
+        return rules.isSpawnable(block, LightSampler.skyDarkness(world));
+    }
+
+    /**
+     * Checks whether a monster could spawn in a block, using the given snapshot to build the section if
+     * needed. Can be called from any thread.
+     *
+     * @param world       The world of the block.
+     * @param snapshot    An up-to-date snapshot of the chunk containing the block, taken with biomes.
+     * @param x           The X coordinate of the block.
+     * @param y           The Y coordinate of the block.
+     * @param z           The Z coordinate of the block.
+     * @param skyDarkness The current sky darkness of the world.
+     * @param minHeight   The minimum height of the world.
+     * @param maxHeight   The maximum height of the world.
+     * @return True if a monster could spawn in the block.
+     */
+    public boolean isSpawnable(World world, ChunkSnapshot snapshot, int x, int y, int z, int skyDarkness,
+                               int minHeight, int maxHeight) {
+        // There is nothing to stand on below the world and no room above it
+        if (y <= minHeight || y >= maxHeight - 1) {
+            return false;
+        }
+
+        Section section = section(world, snapshot, x >> 4, y >> 4, z >> 4, skyDarkness, minHeight, maxHeight);
+        if (section.bits == null) {
+            return false;
+        }
+        int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        return (section.bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the number of spawnable blocks in a chunk section. Can be called from any thread.
+     *
+     * @param world       The world of the section.
+     * @param snapshot    An up-to-date snapshot of the chunk containing the section, taken with biomes.
+     * @param sectionY    The Y coordinate of the section (block Y divided by 16).
+     * @param skyDarkness The current sky darkness of the world.
+     * @param minHeight   The minimum height of the world.
+     * @param maxHeight   The maximum height of the world.
+     * @return The number of spawnable blocks in the section.
+     */
+    public int countSpawnable(World world, ChunkSnapshot snapshot, int sectionY, int skyDarkness, int minHeight, int maxHeight) {
+        return section(world, snapshot, snapshot.getX(), sectionY, snapshot.getZ(), skyDarkness, minHeight, maxHeight).count;
+    }
+
+    private Section section(World world, ChunkSnapshot snapshot, int chunkX, int sectionY, int chunkZ, int skyDarkness,
+                            int minHeight, int maxHeight) {
+        Map<Long, Section> worldSections = sections.computeIfAbsent(world.getUID(), uid -> new ConcurrentHashMap<>());
+        long key = sectionKey(chunkX, sectionY, chunkZ);
+        Section section = worldSections.get(key);
+
+        // Reuse the section only if it was built from the same snapshot at the same sky darkness with the same rules
+        SpawnRules rules = this.rules;
+        if (section != null && section.source.get() == snapshot && section.skyDarkness == skyDarkness
+                && section.rules == rules) {
+            hits.increment();
+            section.lastAccessNanos = System.nanoTime();
+            return section;
+        }
+
+        misses.increment();
+        section = build(rules, snapshot, world.getEnvironment(), sectionY, skyDarkness, minHeight, maxHeight);
+        if (worldSections.put(key, section) == null) {
+            sectionCount.increment();
+            if (sectionCount.sum() > maxSections) {
+                evictLeastRecentlyUsed();
+            }
+        }
+        return section;
+    }
+
+    private static Section build(SpawnRules rules, ChunkSnapshot snapshot, World.Environment environment, int sectionY,
+                                 int skyDarkness, int minHeight, int maxHeight) {
+        long[] bits = null;
+        int count = 0;
+        int baseY = sectionY << 4;
+
+        for (int y = 0; y < 16; y++) {
+            int worldY = baseY + y;
+            // The block below and above must be inside the world
+            if (worldY <= minHeight || worldY >= maxHeight - 1) {
+                continue;
+            }
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (rules.isSpawnable(snapshot, environment, x, worldY, z, skyDarkness)) {
+                        // Most sections have no spawnable blocks at all, so the bitset is only allocated when needed
+                        if (bits == null) {
+                            bits = new long[SECTION_WORDS];
+                        }
+                        int index = (y << 8) | (z << 4) | x;
+                        bits[index >>> 6] |= 1L << index;
+                        count++;
+                    }
+                }
+            }
+        }
+        return new Section(snapshot, skyDarkness, rules, bits, count);
+    }
+
+    private synchronized void evictLeastRecentlyUsed() {
+        // Another thread may have evicted already while this one was waiting
+        long total = sectionCount.sum();
+        if (total <= maxSections) {
+            return;
+        }
+
+        // Find the access time below which the oldest eighth of all sections lies, and drop those sections
+        long[] accessTimes = new long[(int) total];
+        int size = 0;
+        for (Map<Long, Section> worldSections : sections.values()) {
+            for (Section section : worldSections.values()) {
+                if (size == accessTimes.length) {
+                    break;
+                }
+                accessTimes[size++] = section.lastAccessNanos;
+            }
+        }
+        Arrays.sort(accessTimes, 0, size);
+        long threshold = accessTimes[Math.min(size - 1, Math.max(0, size / 8))];
+
+        for (Map<Long, Section> worldSections : sections.values()) {
+            Iterator<Section> iterator = worldSections.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().lastAccessNanos <= threshold) {
+                    iterator.remove();
+                    sectionCount.decrement();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the sections around a block, so they are rebuilt on the next lookup.
+     *
+     * @param block      The block that changed.
+     * @param lightRange The number of sections around the block whose light could have changed as well.
+     */
+    private void invalidateAround(Block block, int lightRange) {
+        Map<Long, Section> worldSections = sections.get(block.getWorld().getUID());
+        if (worldSections == null || worldSections.isEmpty()) {
+            return;
+        }
+
+        int chunkX = block.getX() >> 4;
+        int sectionY = block.getY() >> 4;
+        int chunkZ = block.getZ() >> 4;
+        // The block can also be the floor or ceiling of a block in the section above or below
+        int minY = sectionY - Math.max(lightRange, (block.getY() & 15) == 0 ? 1 : 0);
+        int maxY = sectionY + Math.max(lightRange, (block.getY() & 15) == 15 ? 1 : 0);
+        for (int dx = -lightRange; dx <= lightRange; dx++) {
+            for (int dz = -lightRange; dz <= lightRange; dz++) {
+                for (int y = minY; y <= maxY; y++) {
+                    if (worldSections.remove(sectionKey(chunkX + dx, y, chunkZ + dz)) != null) {
+                        sectionCount.decrement();
+                    }
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        // Placing a block can add or block a light source, which reaches into the neighbouring sections
+        invalidateAround(event.getBlock(), 1);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        invalidateAround(event.getBlock(), 1);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Map<Long, Section> worldSections = sections.get(event.getWorld().getUID());
+        if (worldSections == null) {
+            return;
+        }
+        int chunkX = event.getChunk().getX();
+        int chunkZ = event.getChunk().getZ();
+        for (int y = LightSampler.minHeight(event.getWorld()) >> 4; y <= (event.getWorld().getMaxHeight() - 1) >> 4; y++) {
+            if (worldSections.remove(sectionKey(chunkX, y, chunkZ)) != null) {
+                sectionCount.decrement();
+            }
+        }
+    }
+
+    /**
+     * Measures the size of the index, for the '/lightlevel index' command.
+     *
+     * @return The size and the hit rate of the index.
+     */
+    Usage getUsage() {
+        long sectionTotal = 0;
+        long allocated = 0;
+        long spawnable = 0;
+        for (Map<Long, Section> worldSections : sections.values()) {
+            for (Section section : worldSections.values()) {
+                sectionTotal++;
+                spawnable += section.count;
+                if (section.bits != null) {
+                    allocated++;
+                }
+            }
+        }
+
+        // Every section costs its map entry, key, object and weak reference, plus the bitset if it has one
+        long bytes = sectionTotal * 120L + allocated * (16L + SECTION_WORDS * 8L);
+        return new Usage(sectionTotal, maxSections, allocated, spawnable, bytes, hits.sum(), hits.sum() + misses.sum(),
+                evictions.sum());
+    }
+
+    private static long sectionKey(int chunkX, int sectionY, int chunkZ) {
+        return ((long) (chunkX & 0x3FFFFF) << 42) | ((long) (chunkZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    private static class Section {
+        // The snapshot the section was built from, held weakly so the index does not keep snapshots alive
+        private final WeakReference<ChunkSnapshot> source;
+        private final int skyDarkness;
+        private final SpawnRules rules;
+        // One bit per block, or null if the section has no spawnable blocks
+        private final long[] bits;
+        private final int count;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        private Section(ChunkSnapshot source, int skyDarkness, SpawnRules rules, long[] bits, int count) {
+            this.source = new WeakReference<>(source);
+            this.skyDarkness = skyDarkness;
+            this.rules = rules;
+            this.bits = bits;
+            this.count = count;
+        }
+    }
+
+    /** The size and the hit rate of the index at one point in time. */
+    static final class Usage {
+        final long sections;
+        final long maxSections;
+        // Sections with spawnable blocks, which have a bitset
+        final long allocated;
+        final long spawnable;
+        final long bytes;
+        final long hits;
+        final long lookups;
+        final long evictions;
+
+        private Usage(long sections, long maxSections, long allocated, long spawnable, long bytes, long hits,
+                      long lookups, long evictions) {
+            this.sections = sections;
+            this.maxSections = maxSections;
+            this.allocated = allocated;
+            this.spawnable = spawnable;
+            this.bytes = bytes;
+            this.hits = hits;
+            this.lookups = lookups;
+            this.evictions = evictions;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Highlights every block within a radius around the player where monsters can spawn, using particles
+ * that only the player can see.
+ * <p>
+ * The blocks are found on an async thread from chunk snapshots. When the player moves, only the slabs of
+ * blocks that entered the radius are scanned, plus the chunks in which blocks changed since the last scan, which
+ * the change counts of the {@link SnapshotCache} tell without capturing anything. Snapshots are only taken of the
+ * chunks that are scanned, and only a limited number per tick for all players together. Particles are drawn a few
+ * at a time, limited per player and per tick, so the overlay has a fixed cost no matter how many players use it
+ * and how many spawnable blocks there are. The budgets are shared out on the global thread, while the
+ * scans and particles of every player are handled on the thread that owns the player.
+ */
+public class SpawnOverlay implements Runnable, Listener {
+
+    private final LightLevelDisplay plugin;
+    private final SnapshotCache snapshotCache;
+    private final SpawnIndex spawnIndex;
+    private final int radius;
+    private final int rescanInterval;
+    private final int maxParticlesPerTick;
+    private final int maxParticlesPerPlayer;
+    private final int maxSnapshotsPerTick;
+    // Snapshots that may still be captured in this tick, shared by the scans of all players
+    private final AtomicInteger snapshotBudget = new AtomicInteger();
+    private final Particle.DustOptions dustOptions = new Particle.DustOptions(Color.RED, 1.0F);
+    // Overlay state of every player who has the overlay enabled
+    private final Map<UUID, OverlayView> views = new ConcurrentHashMap<>();
+    private long currentTick = 0L;
+    // Rotates which player is rendered first, so the budget per tick is shared fairly
+    private int renderOffset = 0;
+    private TaskScheduler.Task task = null;
+
+    /**
+     * Creates a new spawn overlay.
+     *
+     * @param plugin                The plugin instance.
+     * @param snapshotCache         The cache to take chunk snapshots from.
+     * @param spawnIndex            The index to look up spawnable blocks in.
+     * @param radius                The radius around the player to highlight.
+     * @param rescanInterval        The number of ticks between two checks whether the player moved.
+     * @param maxParticlesPerTick   The maximum number of particles drawn per tick for all players together.
+     * @param maxParticlesPerPlayer The maximum number of particles drawn per tick for a single player.
+     * @param maxSnapshotsPerTick   The maximum number of chunk snapshots captured per tick for all players together.
+     */
+    public SpawnOverlay(LightLevelDisplay plugin, SnapshotCache snapshotCache, SpawnIndex spawnIndex, int radius,
+                        int rescanInterval, int maxParticlesPerTick, int maxParticlesPerPlayer, int maxSnapshotsPerTick) {
+        this.plugin = plugin;
+        this.snapshotCache = snapshotCache;
+        this.spawnIndex = spawnIndex;
+        this.radius = radius;
+        this.rescanInterval = rescanInterval;
+        this.maxParticlesPerTick = maxParticlesPerTick;
+        this.maxParticlesPerPlayer = maxParticlesPerPlayer;
+        this.maxSnapshotsPerTick = maxSnapshotsPerTick;
+        this.snapshotBudget.set(maxSnapshotsPerTick);
+    }
+
+    /** Starts scanning and drawing the overlay every tick. */
+    public void start() {
+        if (task == null) {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            task = plugin.getTaskScheduler().runGlobalTimer(this, 1L, 1L);
+        }
+    }
+
+    /** Stops the overlay for everyone. */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+            HandlerList.unregisterAll(this);
+        }
+        views.clear();
+    }
+
+    /**
+     * Toggles the overlay for a player.
+     *
+     * @param player The player to toggle the overlay for.
+     * @return True if the overlay is now enabled, false if it is now disabled.
+     */
+    public boolean toggle(Player player) {
+        if (views.remove(player.getUniqueId()) != null) {
+            return false;
+        }
+
+        // Start the first scan right away instead of waiting for the next rescan
+        OverlayView view = new OverlayView();
+        views.put(player.getUniqueId(), view);
+        scan(player, view);
+        return true;
+    }
+
+    /**
+     * Checks whether a player has the overlay enabled.
+     *
+     * @param playerUUID The UUID of the player.
+     * @return True if the overlay is enabled for the player.
+     */
+    public boolean isEnabled(UUID playerUUID) {
+        return views.containsKey(playerUUID);
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        views.remove(event.getPlayer().getUniqueId());
+    }
+
+    @Override
+    public void run() {
+        if (views.isEmpty()) {
+            return;
+        }
+        currentTick++;
+
+        // Check whether the players moved or their surroundings changed, less often while the server is lagging
+        double scale = plugin.getLoadScale();
+        boolean rescan = currentTick % Math.max(rescanInterval, (int) (rescanInterval / scale)) == 0;
+        int budget = Math.max(1, (int) (maxParticlesPerTick * scale));
+        snapshotBudget.set(Math.max(1, (int) (maxSnapshotsPerTick * scale)));
+
+        List<Map.Entry<UUID, OverlayView>> entries = new ArrayList<>(views.entrySet());
+        renderOffset = (renderOffset + 1) % entries.size();
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<UUID, OverlayView> entry = entries.get((renderOffset + i) % entries.size());
+            OverlayView view = entry.getValue();
+            Player player = plugin.getServer().getPlayer(entry.getKey());
+            if (player == null) {
+                continue;
+            }
+
+            // Share the particle budget of this tick, the particles themselves are drawn by the owning thread
+            long[] positions = view.positions;
+            int count = 0;
+            if (budget > 0 && positions.length > 0 && player.getWorld().getUID().equals(view.worldUID)) {
+                count = Math.min(Math.min(maxParticlesPerPlayer, budget), positions.length);
+                budget -= count;
+            }
+            if (rescan || count > 0) {
+                int particles = count;
+                plugin.getTaskScheduler().execute(player, () -> {
+                    if (rescan) {
+                        scan(player, view);
+                    }
+                    render(player, view, particles);
+                });
+            }
+        }
+    }
+
+    private void render(Player player, OverlayView view, int count) {
+        long[] positions = view.positions;
+        if (positions.length == 0) {
+            return;
+        }
+
+        // Continue where the last tick stopped, so every block gets its turn
+        for (int i = 0; i < Math.min(count, positions.length); i++) {
+            long position = positions[view.cursor];
+            view.cursor = (view.cursor + 1) % positions.length;
+            player.spawnParticle(Particle.REDSTONE, unpackX(position) + 0.5D, unpackY(position) + 0.1D,
+                    unpackZ(position) + 0.5D, 1, 0.0D, 0.0D, 0.0D, 0.0D, dustOptions);
+        }
+    }
+
+    private void scan(Player player, OverlayView view) {
+        // Only one scan per player at a time, the next check picks up anything that changed meanwhile
+        if (view.scanning) {
+            return;
+        }
+
+        Location location = player.getLocation();
+        World world = location.getWorld();
+        int minHeight = LightSampler.minHeight(world);
+        int maxHeight = world.getMaxHeight();
+        Box box = new Box(location.getBlockX() - radius, location.getBlockX() + radius,
+                Math.max(minHeight + 1, location.getBlockY() - radius), Math.min(maxHeight - 2, location.getBlockY() + radius),
+                location.getBlockZ() - radius, location.getBlockZ() + radius);
+
+        // Rescan everything if the player switched worlds or teleported far away, or the sky got darker or brighter,
+        // which changes the verdicts of all blocks that see the sky
+        boolean sameWorld = world.getUID().equals(view.worldUID);
+        int skyDarkness = LightSampler.skyDarkness(world);
+        Box previousBox = sameWorld ? view.box : null;
+        boolean full = previousBox == null || previousBox.intersection(box) == null || view.skyDarkness != skyDarkness;
+
+        // Find the chunks in which blocks changed since the last scan, from their change counts
+        Map<Long, Long> changeCounts = new HashMap<>();
+        List<Box> regions = new ArrayList<>();
+        for (int chunkX = box.minX >> 4; chunkX <= box.maxX >> 4; chunkX++) {
+            for (int chunkZ = box.minZ >> 4; chunkZ <= box.maxZ >> 4; chunkZ++) {
+                long key = SnapshotCache.chunkKey(chunkX, chunkZ);
+                long changeCount = snapshotCache.getChangeCount(world, chunkX, chunkZ);
+                changeCounts.put(key, changeCount);
+
+                Long previous = view.changeCounts.get(key);
+                if (!full && previous != null && previous != changeCount) {
+                    // Rescan the part of the chunk that was already scanned before the change
+                    Box changed = new Box(chunkX << 4, (chunkX << 4) + 15, box.minY, box.maxY, chunkZ << 4, (chunkZ << 4) + 15)
+                            .intersection(box).intersection(previousBox);
+                    if (changed != null) {
+                        regions.add(changed);
+                    }
+                }
+            }
+        }
+
+        // Otherwise only scan the blocks that are new in the radius and the changed chunks
+        Set<Long> previousSpawnable = view.spawnable;
+        if (full) {
+            regions.clear();
+            regions.add(box);
+            previousSpawnable = Collections.emptySet();
+        } else if (previousBox.equals(box) && regions.isEmpty()) {
+            return;
+        } else {
+            regions.addAll(box.subtract(previousBox));
+        }
+
+        // Take snapshots only of the chunks that are scanned. If the budget of this tick runs out, the scan waits
+        // for the next check, the snapshots taken so far stay cached and do not count against the budget again
+        Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+        for (Box region : regions) {
+            for (int chunkX = region.minX >> 4; chunkX <= region.maxX >> 4; chunkX++) {
+                for (int chunkZ = region.minZ >> 4; chunkZ <= region.maxZ >> 4; chunkZ++) {
+                    long key = SnapshotCache.chunkKey(chunkX, chunkZ);
+                    if (snapshots.containsKey(key)) {
+                        continue;
+                    }
+                    ChunkSnapshot snapshot = snapshotCache.getIfCurrent(world, chunkX, chunkZ);
+                    if (snapshot == null) {
+                        if (snapshotBudget.getAndDecrement() <= 0) {
+                            return;
+                        }
+                        snapshot = snapshotCache.get(world, chunkX, chunkZ);
+                    }
+                    snapshots.put(key, snapshot);
+                }
+            }
+        }
+
+        Set<Long> basis = previousSpawnable;
+        UUID worldUID = world.getUID();
+        view.scanning = true;
+
+        plugin.getTaskScheduler().runAsync(() -> {
+            // Keep the known blocks that are still in the radius and not about to be rescanned
+            Set<Long> spawnable = new HashSet<>(basis);
+            Iterator<Long> iterator = spawnable.iterator();
+            while (iterator.hasNext()) {
+                long position = iterator.next();
+                int x = unpackX(position);
+                int y = unpackY(position);
+                int z = unpackZ(position);
+                if (!box.contains(x, y, z) || inAny(regions, x, y, z)) {
+                    iterator.remove();
+                }
+            }
+
+            for (Box region : regions) {
+                scanRegion(region, world, snapshots, skyDarkness, minHeight, maxHeight, spawnable);
+            }
+
+            long[] positions = new long[spawnable.size()];
+            int index = 0;
+            for (long position : spawnable) {
+                positions[index++] = position;
+            }
+
+            // Hand the result back to the thread that owns the player
+            plugin.getTaskScheduler().runForPlayer(player, () -> {
+                view.worldUID = worldUID;
+                view.box = box;
+                view.skyDarkness = skyDarkness;
+                view.changeCounts = changeCounts;
+                view.spawnable = spawnable;
+                view.positions = positions;
+                view.cursor = 0;
+                view.scanning = false;
+            });
+        });
+    }
+
+    private void scanRegion(Box region, World world, Map<Long, ChunkSnapshot> snapshots, int skyDarkness,
+                            int minHeight, int maxHeight, Set<Long> spawnable) {
+        for (int x = region.minX; x <= region.maxX; x++) {
+            for (int z = region.minZ; z <= region.maxZ; z++) {
+                ChunkSnapshot snapshot = snapshots.get(SnapshotCache.chunkKey(x >> 4, z >> 4));
+                for (int y = region.minY; y <= region.maxY; y++) {
+                    if (spawnIndex.isSpawnable(world, snapshot, x, y, z, skyDarkness, minHeight, maxHeight)) {
+                        spawnable.add(pack(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean inAny(List<Box> boxes, int x, int y, int z) {
+        for (Box box : boxes) {
+            if (box.contains(x, y, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Block positions are packed into longs: 26 bits for X and Z and 12 bits for Y
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    private static int unpackX(long position) {
+        return (int) (position >> 38);
+    }
+
+    private static int unpackY(long position) {
+        return (int) (position << 52 >> 52);
+    }
+
+    private static int unpackZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+
+    private static class OverlayView {
+        // The area of the last finished scan, only changed on the thread that owns the player
+        private volatile UUID worldUID = null;
+        private Box box = null;
+        // The sky darkness the spawnable blocks were found at
+        private int skyDarkness = -1;
+        // The change counts of the chunks in the area when they were scanned, -1 for chunks that were not cached
+        private Map<Long, Long> changeCounts = Collections.emptyMap();
+        private Set<Long> spawnable = Collections.emptySet();
+        // The spawnable blocks as an array for drawing, read by the global thread to share the particle budget,
+        // and the index of the next block to draw
+        private volatile long[] positions = new long[0];
+        private int cursor = 0;
+        private boolean scanning = false;
+    }
+
+    /** An axis-aligned box of blocks, with all bounds inclusive. */
+    private static final class Box {
+        private final int minX;
+        private final int maxX;
+        private final int minY;
+        private final int maxY;
+        private final int minZ;
+        private final int maxZ;
+
+        private Box(int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+        }
+
+        private boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        /** Returns the overlap of both boxes, or null if they do not overlap. */
+        private Box intersection(Box other) {
+            Box box = new Box(Math.max(minX, other.minX), Math.min(maxX, other.maxX), Math.max(minY, other.minY),
+                    Math.min(maxY, other.maxY), Math.max(minZ, other.minZ), Math.min(maxZ, other.maxZ));
+            return box.minX <= box.maxX && box.minY <= box.maxY && box.minZ <= box.maxZ ? box : null;
+        }
+
+        /** Splits the part of this box that is not covered by the other box into up to six slabs. */
+        private List<Box> subtract(Box other) {
+            List<Box> slabs = new ArrayList<>();
+            if (minX < other.minX) {
+                slabs.add(new Box(minX, other.minX - 1, minY, maxY, minZ, maxZ));
+            }
+            if (maxX > other.maxX) {
+                slabs.add(new Box(other.maxX + 1, maxX, minY, maxY, minZ, maxZ));
+            }
+            int innerMinX = Math.max(minX, other.minX);
+            int innerMaxX = Math.min(maxX, other.maxX);
+            if (minY < other.minY) {
+                slabs.add(new Box(innerMinX, innerMaxX, minY, other.minY - 1, minZ, maxZ));
+            }
+            if (maxY > other.maxY) {
+                slabs.add(new Box(innerMinX, innerMaxX, other.maxY + 1, maxY, minZ, maxZ));
+            }
+            int innerMinY = Math.max(minY, other.minY);
+            int innerMaxY = Math.min(maxY, other.maxY);
+            if (minZ < other.minZ) {
+                slabs.add(new Box(innerMinX, innerMaxX, innerMinY, innerMaxY, minZ, other.minZ - 1));
+            }
+            if (maxZ > other.maxZ) {
+                slabs.add(new Box(innerMinX, innerMaxX, innerMinY, innerMaxY, other.maxZ + 1, maxZ));
+            }
+            return slabs;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Box)) {
+                return false;
+            }
+            Box other = (Box) object;
+            return minX == other.minX && maxX == other.maxX && minY == other.minY && maxY == other.maxY
+                    && minZ == other.minZ && maxZ == other.maxZ;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((minX * 31 + minY) * 31 + minZ) * 31 + maxX;
+        }
+    }
+}
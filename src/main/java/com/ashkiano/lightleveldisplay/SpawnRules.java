@@ -0,0 +1,333 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules that decide whether a monster could spawn in a block, compiled once from the 'spawn-rules' section
+ * of the configuration into tables.
+ * <p>
+ * Every dimension has its own light limits, and every dimension can have its own blocks that monsters cannot
+ * spawn on. Biomes in which no monsters spawn at all, like mushroom fields, are a class of their own. The blocks
+ * and biomes are held in bitsets indexed by their ordinal, so a verdict costs a few array lookups no matter how
+ * many names are configured. Instances are immutable and can be used from any thread.
+ */
+public final class SpawnRules {
+
+    // Used when the configuration does not list its own, the blocks that are solid but that monsters cannot spawn on
+    private static final List<String> DEFAULT_NO_SPAWN_SURFACES = Arrays.asList("GLASS", "TINTED_GLASS", "*_STAINED_GLASS",
+            "*_PANE", "*_LEAVES", "*_SLAB", "*_STAIRS", "*_FENCE", "*_FENCE_GATE", "*_WALL", "*_CARPET", "IRON_BARS",
+            "BARRIER", "MAGMA_BLOCK");
+    private static final List<String> DEFAULT_NO_SPAWN_BIOMES = Arrays.asList("MUSHROOM_FIELDS", "DEEP_DARK");
+
+    // Names in the block and biome lists that did not match anything, reported once after loading
+    private final List<String> unknownNames = new ArrayList<>();
+    private final Map<World.Environment, Dimension> dimensions = new EnumMap<>(World.Environment.class);
+    // Blocks a monster cannot have its feet or head in, shared by all dimensions
+    private final BitSet obstructing = new BitSet();
+    // Biomes in which no monsters spawn, or null if there are none, so the biome is not even looked up
+    private final BitSet noSpawnBiomes;
+
+    private SpawnRules(ConfigurationSection config) {
+        // Since 1.18 monsters only spawn where no block light reaches, except in the Nether
+        boolean blockLightLimit = minorVersion() >= 18;
+
+        for (Material material : Material.values()) {
+            if (isModern(material) && (material.isSolid() || material == Material.WATER || material == Material.LAVA)) {
+                obstructing.set(material.ordinal());
+            }
+        }
+
+        List<String> defaultSurfaces = config != null && config.isSet("no-spawn-surfaces")
+                ? config.getStringList("no-spawn-surfaces") : DEFAULT_NO_SPAWN_SURFACES;
+        for (World.Environment environment : World.Environment.values()) {
+            ConfigurationSection section = config != null ? config.getConfigurationSection(environment.name()) : null;
+            boolean nether = environment == World.Environment.NETHER;
+            int defaultMaxLight = nether ? 11 : 7;
+            int maxLight = section != null ? section.getInt("max-light", defaultMaxLight) : defaultMaxLight;
+            String blockLight = section != null ? section.getString("max-block-light", "auto") : "auto";
+            int autoBlockLight = blockLightLimit && !nether ? 0 : maxLight;
+            int maxBlockLight;
+            if ("auto".equalsIgnoreCase(blockLight)) {
+                maxBlockLight = autoBlockLight;
+            } else {
+                try {
+                    maxBlockLight = Integer.parseInt(blockLight.trim());
+                } catch (NumberFormatException e) {
+                    unknownNames.add(environment.name() + ".max-block-light: " + blockLight);
+                    maxBlockLight = autoBlockLight;
+                }
+            }
+            List<String> surfaces = section != null && section.isSet("no-spawn-surfaces")
+                    ? section.getStringList("no-spawn-surfaces") : defaultSurfaces;
+            dimensions.put(environment, new Dimension(maxBlockLight, maxLight, surfaces(surfaces)));
+        }
+
+        BitSet biomes = new BitSet();
+        List<String> biomeNames = config != null && config.isSet("no-spawn-biomes")
+                ? config.getStringList("no-spawn-biomes") : DEFAULT_NO_SPAWN_BIOMES;
+        for (String name : biomeNames) {
+            boolean matched = false;
+            for (Biome biome : Biome.values()) {
+                if (matches(biome.name(), name)) {
+                    biomes.set(biome.ordinal());
+                    matched = true;
+                }
+            }
+            if (!matched) {
+                unknownNames.add(name);
+            }
+        }
+        noSpawnBiomes = biomes.isEmpty() ? null : biomes;
+    }
+
+    /**
+     * Compiles the spawn rules. Safe to call from any thread.
+     *
+     * @param config The 'spawn-rules' section of the configuration, or null to use the defaults.
+     * @return The compiled rules.
+     */
+    public static SpawnRules compile(ConfigurationSection config) {
+        return new SpawnRules(config);
+    }
+
+    /**
+     * Returns the names in the configuration that are not a known block or biome, or not a valid number.
+     *
+     * @return The unknown names, empty if everything was understood.
+     */
+    public List<String> getUnknownNames() {
+        return Collections.unmodifiableList(unknownNames);
+    }
+
+    /**
+     * Checks whether a monster could spawn in a block of a snapshot: it needs a block to stand on that monsters
+     * can spawn on in the dimension, room for its feet and head, light within the limits of the dimension, and
+     * a biome where monsters spawn. The block must be inside the world height, with room below and above it.
+     *
+     * @param snapshot    A snapshot of the chunk containing the block, taken with biomes.
+     * @param environment The dimension of the world.
+     * @param x           The X coordinate of the block within the chunk (0-15).
+     * @param y           The Y coordinate of the block.
+     * @param z           The Z coordinate of the block within the chunk (0-15).
+     * @param skyDarkness The current sky darkness of the world.
+     * @return True if a monster could spawn in the block.
+     */
+    public boolean isSpawnable(ChunkSnapshot snapshot, World.Environment environment, int x, int y, int z, int skyDarkness) {
+        if (obstructing.get(snapshot.getBlockType(x, y, z).ordinal())
+                || obstructing.get(snapshot.getBlockType(x, y + 1, z).ordinal())) {
+            return false;
+        }
+        Dimension dimension = dimensions.get(environment);
+        if (!dimension.surfaces.get(snapshot.getBlockType(x, y - 1, z).ordinal())) {
+            return false;
+        }
+
+        int blockLight = snapshot.getBlockEmittedLight(x, y, z);
+        if (blockLight > dimension.maxBlockLight) {
+            return false;
+        }
+        int skyLight = snapshot.getBlockSkyLight(x, y, z) - skyDarkness;
+        if (Math.max(blockLight, skyLight) > dimension.maxLight) {
+            return false;
+        }
+        // The biome is checked last, it is the most expensive lookup and rarely decides
+        return noSpawnBiomes == null || !noSpawnBiomes.get(snapshot.getBiome(x, y, z).ordinal());
+    }
+
+    /**
+     * Checks whether a monster could spawn in a live block, with the same checks as for a block of a snapshot.
+     * Must be called from the thread that owns the block, and the block must be inside the world height, with
+     * room below and above it.
+     *
+     * @param block       The block.
+     * @param skyDarkness The current sky darkness of the world.
+     * @return True if a monster could spawn in the block.
+     */
+    public boolean isSpawnable(Block block, int skyDarkness) {
+        if (obstructing.get(block.getType().ordinal())
+                || obstructing.get(block.getRelative(BlockFace.UP).getType().ordinal())) {
+            return false;
+        }
+        Dimension dimension = dimensions.get(block.getWorld().getEnvironment());
+        if (!dimension.surfaces.get(block.getRelative(BlockFace.DOWN).getType().ordinal())) {
+            return false;
+        }
+
+        int blockLight = block.getLightFromBlocks();
+        if (blockLight > dimension.maxBlockLight) {
+            return false;
+        }
+        int skyLight = block.getLightFromSky() - skyDarkness;
+        if (Math.max(blockLight, skyLight) > dimension.maxLight) {
+            return false;
+        }
+        return noSpawnBiomes == null || !noSpawnBiomes.get(block.getBiome().ordinal());
+    }
+
+    /**
+     * Checks whether a monster could spawn in a block of a snapshot, for blocks that may be at the edge of the world.
+     *
+     * @param snapshot    A snapshot of the chunk containing the block, taken with biomes.
+     * @param environment The dimension of the world.
+     * @param x           The X coordinate of the block within the chunk (0-15).
+     * @param y           The Y coordinate of the block.
+     * @param z           The Z coordinate of the block within the chunk (0-15).
+     * @param skyDarkness The sky darkness to assume.
+     * @param minHeight   The minimum height of the world.
+     * @param maxHeight   The maximum height of the world.
+     * @return True if a monster could spawn in the block.
+     */
+    public boolean isSpawnableBlock(ChunkSnapshot snapshot, World.Environment environment, int x, int y, int z,
+                                    int skyDarkness, int minHeight, int maxHeight) {
+        return y > minHeight && y < maxHeight - 1 && isSpawnable(snapshot, environment, x, y, z, skyDarkness);
+    }
+
+    /**
+     * Counts the spawnable blocks of a whole chunk, for scans that look at every chunk only once.
+     *
+     * @param snapshot    A snapshot of the chunk, taken with biomes.
+     * @param environment The dimension of the world.
+     * @param skyDarkness The sky darkness to assume.
+     * @param minHeight   The minimum height of the world.
+     * @param maxHeight   The maximum height of the world.
+     * @return The number of spawnable blocks in the chunk.
+     */
+    public int countSpawnable(ChunkSnapshot snapshot, World.Environment environment, int skyDarkness,
+                              int minHeight, int maxHeight) {
+        int count = 0;
+        // The block below and above must be inside the world
+        for (int y = minHeight + 1; y < maxHeight - 1; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (isSpawnable(snapshot, environment, x, y, z, skyDarkness)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the dimensions that have rules, for the '/lightlevel index' command.
+     *
+     * @return The dimensions.
+     */
+    public Set<World.Environment> getEnvironments() {
+        return Collections.unmodifiableSet(dimensions.keySet());
+    }
+
+    /**
+     * Returns the highest light level monsters can spawn at in a dimension.
+     *
+     * @param environment A dimension returned by {@link #getEnvironments()}.
+     * @return The light level.
+     */
+    public int getMaxLight(World.Environment environment) {
+        return dimensions.get(environment).maxLight;
+    }
+
+    /**
+     * Returns the highest block light level monsters can spawn at in a dimension.
+     *
+     * @param environment A dimension returned by {@link #getEnvironments()}.
+     * @return The block light level.
+     */
+    public int getMaxBlockLight(World.Environment environment) {
+        return dimensions.get(environment).maxBlockLight;
+    }
+
+    /**
+     * Returns the number of blocks monsters can spawn on in a dimension.
+     *
+     * @param environment A dimension returned by {@link #getEnvironments()}.
+     * @return The number of block types.
+     */
+    public int getSurfaceCount(World.Environment environment) {
+        return dimensions.get(environment).surfaces.cardinality();
+    }
+
+    /** Builds the bitset of the solid blocks that monsters can spawn on, leaving out the listed ones. */
+    private BitSet surfaces(List<String> noSpawnSurfaces) {
+        BitSet surfaces = new BitSet();
+        for (Material material : Material.values()) {
+            if (isModern(material) && material.isSolid()) {
+                surfaces.set(material.ordinal());
+            }
+        }
+        for (String name : noSpawnSurfaces) {
+            boolean matched = false;
+            for (Material material : Material.values()) {
+                if (isModern(material) && matches(material.name(), name)) {
+                    surfaces.clear(material.ordinal());
+                    matched = true;
+                }
+            }
+            if (!matched && !unknownNames.contains(name)) {
+                unknownNames.add(name);
+            }
+        }
+        return surfaces;
+    }
+
+    /**
+     * Matches a block or biome name against a configured name, which may start or end with '*' to match all
+     * names with that suffix or prefix, like '*_SLAB'.
+     */
+    private static boolean matches(String name, String pattern) {
+        String upper = pattern.trim().toUpperCase(Locale.ROOT);
+        if (upper.startsWith("*")) {
+            return name.endsWith(upper.substring(1));
+        }
+        if (upper.endsWith("*")) {
+            return name.startsWith(upper.substring(0, upper.length() - 1));
+        }
+        return name.equals(upper);
+    }
+
+    private static boolean isModern(Material material) {
+        // Legacy materials never appear in chunk snapshots
+        return !material.name().startsWith("LEGACY_");
+    }
+
+    /** Reads the minor version of the server, like 20 for 1.20.1. */
+    private static int minorVersion() {
+        String[] parts = Bukkit.getBukkitVersion().split("-")[0].split("\\.");
+        try {
+            return parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            // Assume a current server if the version cannot be read
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static final class Dimension {
+        private final int maxBlockLight;
+        private final int maxLight;
+        // Blocks that monsters can spawn on in this dimension
+        private final BitSet surfaces;
+
+        private Dimension(int maxBlockLight, int maxLight, BitSet surfaces) {
+            this.maxBlockLight = maxBlockLight;
+            this.maxLight = maxLight;
+            this.surfaces = surfaces;
+        }
+    }
+}
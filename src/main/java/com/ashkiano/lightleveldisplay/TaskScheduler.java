@@ -0,0 +1,169 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs the work of the plugin on the right thread, on a normal server with a single main thread as well as on
+ * a region-threaded server like Folia, where every player and chunk belongs to the thread of its region.
+ * <p>
+ * Work for a single player runs on the thread that owns the player, work that belongs to no player or chunk
+ * runs on the global thread, and async work runs on a small pool of the plugin. On a normal server the owning
+ * thread and the global thread are both the main thread, so everything behaves as before. Use
+ * {@link #create(Plugin)} to get the scheduler for the running server.
+ */
+public abstract class TaskScheduler {
+
+    // Threads of the async pool, enough for the file and network work of the plugin
+    private static final int ASYNC_THREADS = 4;
+    // Class that only exists on region-threaded servers
+    private static final String REGIONIZED_SERVER_CLASS = "io.papermc.paper.threadedregions.RegionizedServer";
+
+    protected final Plugin plugin;
+    private final ScheduledThreadPoolExecutor asyncPool;
+
+    protected TaskScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, plugin.getName() + " Worker #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.asyncPool = new ScheduledThreadPoolExecutor(ASYNC_THREADS, threadFactory);
+    }
+
+    /**
+     * Creates the scheduler for the running server.
+     *
+     * @param plugin The plugin instance.
+     * @return A scheduler for region-threaded servers if the server is one, otherwise one for the main thread.
+     */
+    public static TaskScheduler create(Plugin plugin) {
+        try {
+            Class.forName(REGIONIZED_SERVER_CLASS);
+        } catch (ClassNotFoundException e) {
+            return new BukkitTaskScheduler(plugin);
+        }
+        return new FoliaTaskScheduler(plugin);
+    }
+
+    /**
+     * Checks whether the server runs its regions on several threads.
+     *
+     * @return True on region-threaded servers like Folia.
+     */
+    public abstract boolean isRegionThreaded();
+
+    /**
+     * Runs a task on the global thread on the next tick.
+     *
+     * @param task The task to run.
+     */
+    public abstract void runGlobal(Runnable task);
+
+    /**
+     * Runs a task on the global thread repeatedly.
+     *
+     * @param task        The task to run.
+     * @param delayTicks  The ticks before the first run, at least 1.
+     * @param periodTicks The ticks between two runs.
+     * @return The handle to cancel the task with.
+     */
+    public abstract Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs a task on the thread that owns the player on the next tick. The task is dropped if the player
+     * leaves before it runs.
+     *
+     * @param player The player the task works on.
+     * @param task   The task to run.
+     */
+    public abstract void runForPlayer(Player player, Runnable task);
+
+    /**
+     * Checks whether the current thread owns a player and may therefore touch the player and the world around it.
+     *
+     * @param player The player.
+     * @return True if the player can be used from the current thread.
+     */
+    public abstract boolean isOwnedByCurrentThread(Player player);
+
+    /**
+     * Runs a task for a player right away if the current thread owns the player, otherwise on the owning thread
+     * on the next tick.
+     *
+     * @param player The player the task works on.
+     * @param task   The task to run.
+     */
+    public void execute(Player player, Runnable task) {
+        if (isOwnedByCurrentThread(player)) {
+            task.run();
+        } else {
+            runForPlayer(player, task);
+        }
+    }
+
+    /**
+     * Runs a task for a player who is only known by UUID, for example from an async thread. The player is looked
+     * up on the global thread and the task is run on the thread that owns the player, or not at all if the player
+     * is no longer online.
+     *
+     * @param playerUUID The UUID of the player.
+     * @param task       The task to run with the player.
+     */
+    public void runForPlayer(UUID playerUUID, Consumer<Player> task) {
+        runGlobal(() -> {
+            Player player = plugin.getServer().getPlayer(playerUUID);
+            if (player != null) {
+                execute(player, () -> task.accept(player));
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the async pool of the plugin.
+     *
+     * @param task The task to run.
+     */
+    public void runAsync(Runnable task) {
+        asyncPool.execute(task);
+    }
+
+    /**
+     * Runs a task on the async pool of the plugin repeatedly.
+     *
+     * @param task        The task to run.
+     * @param delayTicks  The ticks before the first run.
+     * @param periodTicks The ticks between two runs, a tick being 50 ms here no matter how fast the server ticks.
+     * @return The handle to cancel the task with.
+     */
+    public Task runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+        ScheduledFuture<?> future = asyncPool.scheduleAtFixedRate(task, delayTicks * 50L, periodTicks * 50L,
+                TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    /**
+     * Stops the async pool when the plugin is disabled. Tasks that were already handed to the pool still run,
+     * repeating tasks do not.
+     */
+    public void shutdown() {
+        asyncPool.shutdown();
+    }
+
+    /** A scheduled task that can be cancelled. */
+    public interface Task {
+
+        /** Cancels the task, it does not run again. */
+        void cancel();
+    }
+}
@@ -0,0 +1,35 @@
+package com.ashkiano.lightleveldisplay;
+
+/**
+ * A token bucket that allows a steady rate of actions with short bursts. Thread-safe.
+ */
+public class TokenBucket {
+
+    private double tokens = -1.0D;
+    // System.nanoTime() of the last refill
+    private long refilledNanos = 0L;
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param nowNanos      The current System.nanoTime().
+     * @param ratePerSecond The number of tokens added per second.
+     * @param burst         The maximum number of tokens the bucket holds.
+     * @return True if a token was taken and the action may happen.
+     */
+    public synchronized boolean tryAcquire(long nowNanos, double ratePerSecond, double burst) {
+        // A new bucket starts full
+        if (tokens < 0.0D) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledNanos) * ratePerSecond / 1_000_000_000.0D);
+        }
+        refilledNanos = nowNanos;
+
+        if (tokens < 1.0D) {
+            return false;
+        }
+        tokens -= 1.0D;
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+/**
+ * Checks whether a newer version of the plugin is available, without ever blocking the main thread.
+ * <p>
+ * The check runs on an async thread with strict connect and read timeouts, so an unreachable update server
+ * cannot delay the startup. The latest version is remembered in the data folder, and restarts within the
+ * cache time only report the remembered result instead of asking the update server again. A failed check is
+ * remembered too, but only for a few minutes, so a server that restarts in a loop does not wait for an unreachable
+ * update server on every start.
+ */
+public class UpdateChecker {
+
+    // The update server of the plugin
+    public static final String DEFAULT_URL = "https://plugins.ashkiano.com/version_check.php?plugin=";
+    // How long a failed check is remembered, unless the cache time is even shorter
+    private static final long FAILURE_CACHE_MILLIS = 10 * 60 * 1000L;
+
+    private final Plugin plugin;
+    private final String url;
+    private final File cacheFile;
+    private final long cacheMillis;
+    private final int timeoutMillis;
+
+    /**
+     * Creates a new update checker.
+     *
+     * @param plugin        The plugin to check for updates.
+     * @param url           The URL of the update server, the name of the plugin is appended to it.
+     * @param cacheFile     The file to remember the latest version in.
+     * @param cacheMillis   How long the remembered latest version is used before the update server is asked again.
+     * @param timeoutMillis The timeout for connecting to and reading from the update server.
+     */
+    public UpdateChecker(Plugin plugin, String url, File cacheFile, long cacheMillis, int timeoutMillis) {
+        this.plugin = plugin;
+        this.url = url;
+        this.cacheFile = cacheFile;
+        this.cacheMillis = cacheMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Runs the check on the calling thread, which must not be the main thread. */
+    public void check() {
+        String latestVersion;
+        YamlConfiguration cache = readCache();
+        if (cache != null) {
+            latestVersion = cache.getString("latest-version");
+            if (latestVersion == null) {
+                // The last check failed a short while ago and was already reported then
+                return;
+            }
+        } else {
+            try {
+                latestVersion = fetchLatestVersion();
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to check for updates. Error: " + e.getMessage());
+                latestVersion = null;
+            }
+            writeCache(latestVersion);
+            if (latestVersion == null) {
+                return;
+            }
+        }
+
+        String currentVersion = plugin.getDescription().getVersion();
+        if (currentVersion.equals(latestVersion)) {
+            plugin.getLogger().info("This plugin is up to date!");
+        } else {
+            plugin.getLogger().warning("There is a newer version (" + latestVersion + ") available! Please update!");
+        }
+    }
+
+    /**
+     * Asks the update server for the latest version.
+     *
+     * @return The latest version, or null if the update server reported an error.
+     */
+    private String fetchLatestVersion() throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url + plugin.getDescription().getName()).openConnection();
+        try {
+            con.setRequestMethod("GET");
+            con.setConnectTimeout(timeoutMillis);
+            con.setReadTimeout(timeoutMillis);
+
+            int responseCode = con.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                plugin.getLogger().warning("Failed to check for updates. Response code: " + responseCode);
+                return null;
+            }
+
+            StringBuilder response = new StringBuilder();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8))) {
+                String inputLine;
+                while ((inputLine = in.readLine()) != null) {
+                    response.append(inputLine);
+                }
+            }
+
+            JSONObject jsonObject = new JSONObject(response.toString());
+            if (jsonObject.has("error")) {
+                plugin.getLogger().warning("Error when checking for updates: " + jsonObject.getString("error"));
+                return null;
+            }
+            return jsonObject.getString("latest_version");
+        } finally {
+            con.disconnect();
+        }
+    }
+
+    /**
+     * Reads the remembered result of the last check.
+     *
+     * @return The remembered result, without a latest version if the check failed, or null if nothing is
+     *         remembered or the result is too old.
+     */
+    private YamlConfiguration readCache() {
+        if (cacheMillis <= 0 || !cacheFile.exists()) {
+            return null;
+        }
+        YamlConfiguration cache = YamlConfiguration.loadConfiguration(cacheFile);
+        long checkedAt = cache.getLong("checked-at", 0L);
+        long age = System.currentTimeMillis() - checkedAt;
+        long maxAge = cache.isSet("latest-version") ? cacheMillis : Math.min(cacheMillis, FAILURE_CACHE_MILLIS);
+        if (age < 0 || age >= maxAge) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Remembers the result of a check.
+     *
+     * @param latestVersion The latest version, or null if the check failed.
+     */
+    private void writeCache(String latestVersion) {
+        if (cacheMillis <= 0) {
+            return;
+        }
+        YamlConfiguration cache = new YamlConfiguration();
+        cache.set("checked-at", System.currentTimeMillis());
+        cache.set("latest-version", latestVersion);
+        try {
+            cache.save(cacheFile);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to remember the result of the update check", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.ChatColor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ColorCodesTest {
+
+    // Characters that make up color codes, hex codes and the text around them, with '&' and '#' repeated so they
+    // come up often
+    private static final String ALPHABET = "&&&&###0123456789abcdefABCDEFklmnorxKLMNORXgGzZ §é";
+
+    @Test
+    public void matchesOldImplementationOnRandomMessages() {
+        Random random = new Random(20240501L);
+        for (int i = 0; i < 200_000; i++) {
+            int length = random.nextInt(40);
+            StringBuilder message = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                message.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String text = message.toString();
+            assertEquals(reference(text), ColorCodes.translate(text), "Message: " + text);
+        }
+    }
+
+    @Test
+    public void matchesOldImplementationOnEdgeCases() {
+        String[] messages = {
+                "", "&", "&&", "&a", "&&a", "a&", "&#", "&#12345", "&#123456", "&#12345G", "&#&#123456",
+                "&x&#ABCDEF", "&#abcdef&r", "#123456", "&&#123456", "&#1234567", "text &7light &#FF00AAlevel &l15",
+                "§a&b", "&#FFFFFF&#000000"
+        };
+        for (String message : messages) {
+            assertEquals(reference(message), ColorCodes.translate(message), "Message: " + message);
+        }
+    }
+
+    @Test
+    public void matchesOldImplementationOnLongMessages() {
+        // Long messages skip the cache
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            message.append("&").append(i % 10).append("&#").append(String.format("%06X", i * 4099)).append(" x");
+        }
+        String text = message.toString();
+        assertEquals(reference(text), ColorCodes.translate(text));
+        assertEquals(reference(text), ColorCodes.translate(text));
+    }
+
+    @Test
+    public void returnsMessagesWithoutCodesUnchanged() {
+        String message = "Light level 7";
+        assertSame(message, ColorCodes.translate(message));
+    }
+
+    @Test
+    public void matchesOldImplementationFromSeveralThreads() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i = 0; i < 20_000; i++) {
+                        // A small set of messages, so the threads hit the same cache entries
+                        String text = "&" + ALPHABET.charAt(random.nextInt(ALPHABET.length())) + "&#"
+                                + Integer.toHexString(0x100000 + random.nextInt(64)) + " level " + random.nextInt(16);
+                        assertEquals(reference(text), ColorCodes.translate(text), "Message: " + text);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    /** The implementation before the single pass translation, kept as the reference of the expected output. */
+    private static String reference(String message) {
+        String translated = ChatColor.translateAlternateColorCodes('&', message);
+        Pattern hexPattern = Pattern.compile("&#([A-Fa-f0-9]{6})");
+        Matcher matcher = hexPattern.matcher(translated);
+        StringBuffer buffer = new StringBuffer(translated.length() + 4 * 8);
+        while (matcher.find()) {
+            String group = matcher.group(1);
+            matcher.appendReplacement(buffer, ChatColor.COLOR_CHAR + "x" +
+                    ChatColor.COLOR_CHAR + group.charAt(0) + ChatColor.COLOR_CHAR + group.charAt(1) +
+                    ChatColor.COLOR_CHAR + group.charAt(2) + ChatColor.COLOR_CHAR + group.charAt(3) +
+                    ChatColor.COLOR_CHAR + group.charAt(4) + ChatColor.COLOR_CHAR + group.charAt(5));
+        }
+        return matcher.appendTail(buffer).toString();
+    }
+}
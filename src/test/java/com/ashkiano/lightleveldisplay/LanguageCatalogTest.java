@@ -0,0 +1,57 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class LanguageCatalogTest {
+
+    @Test
+    public void readsMissingKeysFromTheBundledFile() {
+        YamlConfiguration bundled = new YamlConfiguration();
+        bundled.set(Message.LIGHT_LEVEL_ENABLED.getKey(), "&aZobrazení úrovně světla bylo zapnuto.");
+        bundled.set(Message.LIGHT_LEVEL_DISABLED.getKey(), "&cZobrazení úrovně světla bylo vypnuto.");
+        // An older file on disk that was edited by the server owner and lacks the second key
+        YamlConfiguration file = new YamlConfiguration();
+        file.set(Message.LIGHT_LEVEL_ENABLED.getKey(), "&aZapnuto.");
+        file.setDefaults(bundled);
+
+        LanguageCatalog catalog = LanguageCatalog.compile("cs", file);
+        assertEquals(ColorCodes.translate("&aZapnuto."), catalog.get(Message.LIGHT_LEVEL_ENABLED));
+        assertEquals(ColorCodes.translate("&cZobrazení úrovně světla bylo vypnuto."), catalog.get(Message.LIGHT_LEVEL_DISABLED));
+    }
+
+    @Test
+    public void fallsBackToEnglishForKeysMissingEverywhere() {
+        LanguageCatalog catalog = LanguageCatalog.compile("xx", new YamlConfiguration());
+        assertEquals(ColorCodes.translate(Message.NO_PERMISSION.getDefaultTemplate()), catalog.get(Message.NO_PERMISSION));
+    }
+
+    @Test
+    public void bundledFilesContainEveryMessage() throws Exception {
+        for (String language : LanguageManager.BUNDLED_LANGUAGES) {
+            YamlConfiguration config;
+            try (InputStream input = getClass().getClassLoader().getResourceAsStream("languages/" + language + ".yml")) {
+                assertNotNull(input, "Missing languages/" + language + ".yml");
+                config = YamlConfiguration.loadConfiguration(new InputStreamReader(input, StandardCharsets.UTF_8));
+            }
+            for (Message message : Message.values()) {
+                String template = config.getString(message.getKey());
+                assertNotNull(template, language + " lacks " + message.getKey());
+                // A translation takes the same arguments as the English text
+                assertEquals(countArguments(message.getDefaultTemplate()), countArguments(template),
+                        language + " " + message.getKey());
+            }
+        }
+    }
+
+    private static int countArguments(String template) {
+        return template.replace("%%", "").split("%s", -1).length - 1;
+    }
+}
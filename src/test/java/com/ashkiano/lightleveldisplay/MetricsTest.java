@@ -0,0 +1,299 @@
+package com.ashkiano.lightleveldisplay;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+
+    private HttpServer server;
+    private RecordingScheduler scheduler;
+    private final AtomicInteger requests = new AtomicInteger();
+    // The uncompressed bodies of the requests
+    private final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+    // Counts the request and returns the status the stub server answers it with
+    private volatile IntSupplier status;
+    // Opened once the test has set up the metrics, the scheduler would submit right away otherwise
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream body = new GZIPInputStream(exchange.getRequestBody())) {
+                bodies.add(readAll(body));
+            }
+            int code = status.getAsInt();
+            // Keeps the client from reusing the connection, a stale one would fail before reaching the server
+            exchange.getResponseHeaders().set("Connection", "close");
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        });
+        server.start();
+        scheduler = new RecordingScheduler();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void retriesAfterOneTwoAndFourMinutes() throws InterruptedException {
+        status = () -> {
+            requests.incrementAndGet();
+            return 500;
+        };
+        Metrics.MetricsBase metrics = createMetrics();
+        ready.countDown();
+
+        awaitRequests(4);
+        List<Long> delays = scheduler.getDelays();
+        assertEquals(4, delays.size(), "Delays: " + delays);
+        // The first submission is 3 to 6 minutes after the start
+        assertTrue(delays.get(0) >= 3 * 60_000L && delays.get(0) <= 6 * 60_000L, "Delays: " + delays);
+        assertEquals(Arrays.asList(60_000L, 120_000L, 240_000L), delays.subList(1, 4));
+        assertEquals(4, requests.get());
+        metrics.shutdown();
+    }
+
+    @Test
+    public void stopsRetryingAfterSuccess() throws InterruptedException {
+        status = () -> requests.incrementAndGet() == 1 ? 500 : 200;
+        Metrics.MetricsBase metrics = createMetrics();
+        ready.countDown();
+
+        awaitRequests(2);
+        assertEquals(Collections.singletonList(60_000L), scheduler.getDelays().subList(1, scheduler.getDelays().size()));
+        assertEquals(2, requests.get());
+        metrics.shutdown();
+    }
+
+    @Test
+    public void shutdownCancelsRetries() throws InterruptedException {
+        AtomicReference<Metrics.MetricsBase> metrics = new AtomicReference<>();
+        status = () -> {
+            requests.incrementAndGet();
+            // The plugin is disabled while the request is on its way
+            metrics.get().shutdown();
+            return 500;
+        };
+        metrics.set(createMetrics());
+        ready.countDown();
+
+        awaitRequests(1);
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        // Only the first submission was scheduled, no retry
+        assertEquals(1, scheduler.getDelays().size());
+        assertTrue(scheduler.getQueue().isEmpty());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void shutdownDropsScheduledSubmissions() {
+        Metrics.MetricsBase metrics = new Metrics.MetricsBase(scheduler.paused(), "http://127.0.0.1:"
+                + server.getAddress().getPort() + "/%s", "bukkit", "uuid", 1, true, builder -> {}, builder -> {},
+                null, () -> true, (message, error) -> {}, message -> {}, false, false, false);
+        assertEquals(2, scheduler.getQueue().size());
+
+        metrics.shutdown();
+        assertTrue(scheduler.isShutdown());
+        assertTrue(scheduler.getQueue().isEmpty());
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void sendsGoldenSubmission() throws IOException, InterruptedException {
+        status = () -> {
+            requests.incrementAndGet();
+            return 200;
+        };
+        List<String> logged = Collections.synchronizedList(new ArrayList<>());
+        Metrics.MetricsBase metrics = new Metrics.MetricsBase(scheduler, "http://127.0.0.1:"
+                + server.getAddress().getPort() + "/%s", "bukkit", "8f0c0e5c-3f5e-4a4e-9d4b-1f6a2a7c9b10", 18811, true,
+                builder -> builder.appendField("playerAmount", 3)
+                        .appendField("onlineMode", 1)
+                        .appendField("bukkitVersion", "git-Paper-\"196\" (MC: 1.20.1)")
+                        .appendField("bukkitName", "Pa\u00efper\n")
+                        .appendField("coreCount", 8),
+                builder -> builder.appendField("pluginVersion", "1.17"),
+                this::whenReady, () -> true, (message, error) -> {}, logged::add, false, true, false);
+        // A single chart, the order of several charts is not defined
+        metrics.addCustomChart(new Metrics.SimplePie("display_mode", () -> "actionbar"));
+        ready.countDown();
+
+        awaitRequests(1);
+        byte[] golden = readResource("metrics/submission.json");
+        // Before compressing, as logged, and after the gzip round trip to the server
+        assertEquals(Collections.singletonList("Sent bStats metrics data: " + new String(golden, StandardCharsets.UTF_8)),
+                logged);
+        assertEquals(1, bodies.size());
+        assertArrayEquals(golden, bodies.get(0));
+        metrics.shutdown();
+    }
+
+    @Test
+    public void buildsGoldenCharts() throws Exception {
+        Map<String, Integer> values = new LinkedHashMap<>();
+        values.put("actionbar", 12);
+        values.put("skipped", 0);
+        values.put("bossbar \"quoted\"", 3);
+        Map<String, Map<String, Integer>> drilldown = new LinkedHashMap<>();
+        drilldown.put("1.20", Collections.singletonMap("1.20.1", 4));
+        drilldown.put("1.19", Collections.singletonMap("1.19.4", 1));
+        Map<String, int[]> bars = new LinkedHashMap<>();
+        bars.put("en", new int[] {1, 2, 3});
+
+        Metrics.CustomChart[] charts = {
+                new Metrics.SimplePie("language", () -> "\u010de\u0161tina"),
+                new Metrics.AdvancedPie("channels", () -> values),
+                new Metrics.DrilldownPie("versions", () -> drilldown),
+                new Metrics.SingleLineChart("players", () -> 7),
+                new Metrics.SingleLineChart("zero", () -> 0),
+                new Metrics.MultiLineChart("lines", () -> values),
+                new Metrics.SimpleBarChart("bar", () -> values),
+                new Metrics.AdvancedBarChart("bars", () -> bars),
+                new Metrics.SimplePie("failing", () -> {
+                    throw new IllegalStateException("no data");
+                })
+        };
+        List<Metrics.JsonObjectBuilder.JsonObject> chartData = new ArrayList<>();
+        for (Metrics.CustomChart chart : charts) {
+            Metrics.JsonObjectBuilder.JsonObject data = chart.getRequestJsonObject((message, error) -> {}, false);
+            if (data != null) {
+                chartData.add(data);
+            }
+        }
+        Metrics.JsonObjectBuilder.JsonObject json = new Metrics.JsonObjectBuilder()
+                .appendField("customCharts", chartData.toArray(new Metrics.JsonObjectBuilder.JsonObject[0]))
+                .appendField("names", new String[] {"tab\t", "back\\slash"})
+                .appendNull("nothing")
+                .build();
+
+        byte[] golden = readResource("metrics/charts.json");
+        assertArrayEquals(golden, json.toString().getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Metrics.MetricsBase.compress(json, compressed);
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertArrayEquals(golden, readAll(input));
+        }
+    }
+
+    private Metrics.MetricsBase createMetrics() {
+        return new Metrics.MetricsBase(scheduler, "http://127.0.0.1:" + server.getAddress().getPort() + "/%s",
+                "bukkit", "uuid", 1, true, builder -> builder.appendField("playerAmount", 3), builder -> {},
+                this::whenReady, () -> true, (message, error) -> {}, message -> {}, false, false, false);
+    }
+
+    /** Holds a submission back until the test is set up. */
+    private void whenReady(Runnable submit) {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        submit.run();
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream input = MetricsTest.class.getClassLoader().getResourceAsStream(name)) {
+            assertTrue(input != null, "Missing fixture " + name);
+            // The fixtures end with a line break, which is not part of the JSON
+            byte[] bytes = readAll(input);
+            int length = bytes.length;
+            while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+                length--;
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    /** Waits until the stub server got the given number of requests, and a little longer to catch any extra one. */
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (requests.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(count, requests.get());
+    }
+
+    /**
+     * Records the delays of the scheduled tasks and runs them right away, so the retries do not take minutes.
+     * The regular submission every 30 minutes is queued for a day later and never runs.
+     */
+    private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean paused = false;
+
+        private RecordingScheduler() {
+            super(1);
+            setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        /** Makes the scheduler keep the delays of the tasks, like the real one. */
+        private RecordingScheduler paused() {
+            paused = true;
+            return this;
+        }
+
+        private List<Long> getDelays() {
+            synchronized (delays) {
+                return new ArrayList<>(delays);
+            }
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            // execute() schedules without a delay, those are not of interest
+            if (delay > 0) {
+                delays.add(unit.toMillis(delay));
+            }
+            return super.schedule(command, paused ? delay : 0, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            return super.scheduleAtFixedRate(command, 1, 1, TimeUnit.DAYS);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.ashkiano.lightleveldisplay;
+
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskSchedulerTest {
+
+    private static final int REGIONS = 4;
+
+    // The players the fake server knows, by UUID
+    private final Map<UUID, Player> online = new ConcurrentHashMap<>();
+    // The threads the players were looked up on
+    private final List<Thread> lookupThreads = Collections.synchronizedList(new ArrayList<>());
+    private RegionScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        Server server = (Server) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Server.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getPlayer") && args[0] instanceof UUID) {
+                        lookupThreads.add(Thread.currentThread());
+                        return online.get(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        Plugin plugin = (Plugin) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Plugin.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getName":
+                            return "LightLevelDisplay";
+                        case "getServer":
+                            return server;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        scheduler = new RegionScheduler(plugin);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitIdle());
+    }
+
+    @Test
+    public void executeRunsRightAwayOnTheOwningRegion() throws Exception {
+        Player player = join(0);
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        AtomicBoolean ranBeforeReturn = new AtomicBoolean(false);
+
+        scheduler.onRegion(0, () -> {
+            scheduler.execute(player, () -> ranOn.set(Thread.currentThread()));
+            ranBeforeReturn.set(ranOn.get() != null);
+        });
+
+        assertTrue(ranBeforeReturn.get());
+        assertSame(scheduler.regionThread(0), ranOn.get());
+    }
+
+    @Test
+    public void executeHandsOtherRegionsOverToTheOwner() throws Exception {
+        Player player = join(2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        AtomicBoolean ranBeforeReturn = new AtomicBoolean(true);
+        // Keeps the owning region busy, so the task cannot run there before the check
+        CountDownLatch checked = new CountDownLatch(1);
+        scheduler.runForPlayer(player, () -> {
+            try {
+                checked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        scheduler.onRegion(1, () -> {
+            scheduler.execute(player, () -> {
+                ranOn.set(Thread.currentThread());
+                done.countDown();
+            });
+            ranBeforeReturn.set(done.getCount() == 0);
+        });
+        checked.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(ranBeforeReturn.get());
+        assertSame(scheduler.regionThread(2), ranOn.get());
+    }
+
+    @Test
+    public void runForPlayerLooksThePlayerUpOnTheGlobalThread() throws Exception {
+        Player player = join(3);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Player> received = new AtomicReference<>();
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+
+        // Like an async task that only knows the UUID
+        scheduler.runAsync(() -> scheduler.runForPlayer(player.getUniqueId(), found -> {
+            received.set(found);
+            ranOn.set(Thread.currentThread());
+            done.countDown();
+        }));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(player, received.get());
+        assertSame(scheduler.regionThread(3), ranOn.get());
+        assertEquals(Collections.singletonList(scheduler.globalThread), lookupThreads);
+    }
+
+    @Test
+    public void runForPlayerSkipsPlayersWhoLeft() throws Exception {
+        Player player = join(1);
+        online.remove(player.getUniqueId());
+        AtomicBoolean ran = new AtomicBoolean(false);
+
+        scheduler.runForPlayer(player.getUniqueId(), found -> ran.set(true));
+        scheduler.runForPlayer(player, () -> ran.set(true));
+
+        scheduler.drain();
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void playerStateIsOnlyTouchedByTheOwningRegion() throws Exception {
+        // State that is not thread-safe, safe as long as only the owning region touches it
+        List<Player> players = new ArrayList<>();
+        Map<UUID, int[]> counters = new ConcurrentHashMap<>();
+        Map<UUID, Integer> regions = new ConcurrentHashMap<>();
+        for (int i = 0; i < 16; i++) {
+            Player player = join(i % REGIONS);
+            players.add(player);
+            counters.put(player.getUniqueId(), new int[1]);
+            regions.put(player.getUniqueId(), i % REGIONS);
+        }
+        AtomicBoolean wrongThread = new AtomicBoolean(false);
+
+        // Every region updates every player at the same time, like movement events and the display task do
+        int updates = 2_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> submitters = new ArrayList<>();
+        for (int region = 0; region < REGIONS; region++) {
+            int submittingRegion = region;
+            Thread submitter = new Thread(() -> {
+                try {
+                    start.await();
+                    scheduler.onRegion(submittingRegion, () -> {
+                        for (int i = 0; i < updates; i++) {
+                            for (Player player : players) {
+                                Thread owner = scheduler.regionThread(regions.get(player.getUniqueId()));
+                                scheduler.execute(player, () -> {
+                                    if (Thread.currentThread() != owner) {
+                                        wrongThread.set(true);
+                                    }
+                                    counters.get(player.getUniqueId())[0]++;
+                                });
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    wrongThread.set(true);
+                }
+            });
+            submitter.start();
+            submitters.add(submitter);
+        }
+        start.countDown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        scheduler.drain();
+
+        assertFalse(wrongThread.get());
+        for (Player player : players) {
+            assertEquals(REGIONS * updates, counters.get(player.getUniqueId())[0]);
+        }
+    }
+
+    private Player join(int region) {
+        UUID playerUUID = UUID.randomUUID();
+        Player player = (Player) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUniqueId":
+                            return playerUUID;
+                        case "isOnline":
+                            return online.containsKey(playerUUID);
+                        case "hashCode":
+                            return playerUUID.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        online.put(playerUUID, player);
+        scheduler.owners.put(playerUUID, region);
+        return player;
+    }
+
+    /**
+     * A scheduler like the one of a region-threaded server, with a global thread and a thread for each region.
+     * Every player belongs to one region, and tasks for a player run on the thread of that region, or not at all
+     * once the player has left.
+     */
+    private static class RegionScheduler extends TaskScheduler {
+
+        private final ExecutorService global;
+        private Thread globalThread;
+        private final ExecutorService[] regions = new ExecutorService[REGIONS];
+        private final Thread[] regionThreads = new Thread[REGIONS];
+        // The region of every player
+        private final Map<UUID, Integer> owners = new ConcurrentHashMap<>();
+
+        private RegionScheduler(Plugin plugin) {
+            super(plugin);
+            global = Executors.newSingleThreadExecutor(runnable -> {
+                globalThread = daemon(runnable, "Global");
+                return globalThread;
+            });
+            for (int i = 0; i < REGIONS; i++) {
+                int region = i;
+                regions[i] = Executors.newSingleThreadExecutor(runnable -> {
+                    regionThreads[region] = daemon(runnable, "Region #" + region);
+                    return regionThreads[region];
+                });
+            }
+            // Starts the threads, so their identity is known
+            drain();
+        }
+
+        private static Thread daemon(Runnable runnable, String name) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private Thread regionThread(int region) {
+            return regionThreads[region];
+        }
+
+        /** Runs a task on the thread of a region and waits for it. */
+        private void onRegion(int region, Runnable task) throws Exception {
+            regions[region].submit(task).get(30, TimeUnit.SECONDS);
+        }
+
+        /** Waits until the tasks submitted so far, and the tasks they submit in turn, have run. */
+        private void drain() {
+            try {
+                for (int round = 0; round < 3; round++) {
+                    global.submit(() -> {}).get(30, TimeUnit.SECONDS);
+                    for (ExecutorService region : regions) {
+                        region.submit(() -> {}).get(30, TimeUnit.SECONDS);
+                    }
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private boolean awaitIdle() throws InterruptedException {
+            global.shutdown();
+            boolean idle = global.awaitTermination(5, TimeUnit.SECONDS);
+            for (ExecutorService region : regions) {
+                region.shutdown();
+                idle &= region.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            return idle;
+        }
+
+        @Override
+        public boolean isRegionThreaded() {
+            return true;
+        }
+
+        @Override
+        public void runGlobal(Runnable task) {
+            global.execute(task);
+        }
+
+        @Override
+        public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void runForPlayer(Player player, Runnable task) {
+            regions[owners.get(player.getUniqueId())].execute(() -> {
+                // The task is retired when the player left before it ran
+                if (player.isOnline()) {
+                    task.run();
+                }
+            });
+        }
+
+        @Override
+        public boolean isOwnedByCurrentThread(Player player) {
+            return Thread.currentThread() == regionThreads[owners.get(player.getUniqueId())];
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.ashkiano.lightleveldisplay;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UpdateCheckerTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    // The status and body the stub server answers with, and how long it waits before answering
+    private volatile int status = 200;
+    private volatile String body = "{\"latest_version\":\"1.18\"}";
+    private volatile long delayMillis = 0L;
+    private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+    private File cacheFile;
+    private Plugin plugin;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            try {
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(bytes);
+                }
+            } catch (IOException ignored) {
+                // The checker gave up waiting
+            }
+            exchange.close();
+        });
+        server.start();
+
+        cacheFile = new File(Files.createTempDirectory("update-check").toFile(), "update-check.yml");
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                log.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        PluginDescriptionFile description = new PluginDescriptionFile("LightLevelDisplay", "1.17",
+                "com.ashkiano.lightleveldisplay.LightLevelDisplay");
+        plugin = (Plugin) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Plugin.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getLogger":
+                            return logger;
+                        case "getDescription":
+                            return description;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+        cacheFile.delete();
+        cacheFile.getParentFile().delete();
+    }
+
+    @Test
+    public void reportsNewerVersionAndUsesCacheWithinTtl() {
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(Collections.singletonList("There is a newer version (1.18) available! Please update!"), log);
+
+        // A restart within the cache time reports the remembered version without asking the server
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(2, log.size());
+        assertEquals("There is a newer version (1.18) available! Please update!", log.get(1));
+    }
+
+    @Test
+    public void asksAgainOnceTheCacheExpired() throws IOException {
+        writeCache(System.currentTimeMillis() - 2 * HOUR_MILLIS, "1.17");
+        body = "{\"latest_version\":\"1.17\"}";
+
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(Collections.singletonList("This plugin is up to date!"), log);
+    }
+
+    @Test
+    public void reportsNon200AndRemembersTheFailure() {
+        status = 503;
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(Collections.singletonList("Failed to check for updates. Response code: 503"), log);
+        assertTrue(cacheFile.exists());
+        assertNull(YamlConfiguration.loadConfiguration(cacheFile).getString("latest-version"));
+
+        // The failure is remembered, a restart right after does not ask again and does not report it again
+        status = 200;
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void asksAgainOnceTheFailureExpired() throws IOException {
+        // A failure is only remembered for ten minutes, even with a longer cache time
+        writeCache(System.currentTimeMillis() - 11 * 60 * 1000L, null);
+
+        checker(HOUR_MILLIS, 1000).check();
+        assertEquals(1, requests.get());
+        assertEquals(Collections.singletonList("There is a newer version (1.18) available! Please update!"), log);
+    }
+
+    @Test
+    public void givesUpAfterTheTimeout() {
+        delayMillis = 2000L;
+        long start = System.nanoTime();
+        checker(HOUR_MILLIS, 200).check();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+
+        assertTrue(elapsedMillis < 1500L, "Took " + elapsedMillis + " ms");
+        assertEquals(1, log.size());
+        assertTrue(log.get(0).startsWith("Failed to check for updates. Error: "), log.get(0));
+        assertNull(YamlConfiguration.loadConfiguration(cacheFile).getString("latest-version"));
+    }
+
+    @Test
+    public void doesNotCacheWhenDisabled() {
+        checker(0L, 1000).check();
+        checker(0L, 1000).check();
+        assertEquals(2, requests.get());
+        assertFalse(cacheFile.exists());
+    }
+
+    private UpdateChecker checker(long cacheMillis, int timeoutMillis) {
+        return new UpdateChecker(plugin, "http://127.0.0.1:" + server.getAddress().getPort() + "/?plugin=", cacheFile,
+                cacheMillis, timeoutMillis);
+    }
+
+    private void writeCache(long checkedAt, String latestVersion) throws IOException {
+        YamlConfiguration cache = new YamlConfiguration();
+        cache.set("checked-at", checkedAt);
+        cache.set("latest-version", latestVersion);
+        cache.save(cacheFile);
+    }
+}